@@ -9,12 +9,109 @@ public class AdaBaby {
 			System.out.println("\nAdaBaby (ITEC 460, Spring 2020) Jeffrey Smith");
 			System.out.println("______________________________________________________");
 
-			if (args.length > 0) {
+			// -check: no listing, only diagnostics; -buffered: listing is written once at the end;
+			// -pipelined: the scanner runs on a thread of its own; -class: the unit is translated
+			// into <procedure>.class in the current directory; -ir[=n]: the three-address code of
+			// the unit is listed with its allocation to n (default 8) registers; -run: the unit is
+			// interpreted and the values of its variables are written; -cache=dir: parse results
+			// are kept in dir and reused for sources parsed before (also -Dadababy.cache=dir);
+			// -parallel[=n]: the file is scanned in chunks on n threads (default: one per
+			// processor) before it is parsed. Several files or a directory are compiled by Batch,
+			// which takes only -check and -cache
+			boolean listing = true, buffered = false, pipelined = false, classes = false, run = false;
+			int registers = 0, parallel = 0;
+			String single = null; // the first option given that applies to a single file only
+			int first = 0;
+			for (; first < args.length && args[first].startsWith("-"); first++) {
+				if (single == null && args[first].matches("-(buffered|pipelined|parallel(=.*)?|class|ir(=.*)?|run)")) single = args[first];
+				if (args[first].equals("-check")) listing = false;
+				else if (args[first].equals("-buffered")) buffered = true;
+				else if (args[first].equals("-pipelined")) pipelined = true;
+				else if (args[first].equals("-parallel")) parallel = Runtime.getRuntime().availableProcessors();
+				else if (args[first].equals("-class")) classes = true;
+				else if (args[first].equals("-ir")) registers = 8;
+				else if (args[first].equals("-run")) run = true;
+				else if (args[first].startsWith("-cache=")) Batch.cache = new ParseCache(args[first].substring(7), Long.getLong("adababy.cache.size", 256) << 20);
+				else if (args[first].startsWith("-ir=")) {
+					try {
+						registers = Integer.parseInt(args[first].substring(4));
+					} catch (NumberFormatException e) {
+						registers = 0;
+					}
+					if (registers < 1) System.out.println("   Invalid register count " + args[first]);
+				}
+				else if (args[first].startsWith("-parallel=")) {
+					try {
+						parallel = Integer.parseInt(args[first].substring(10));
+					} catch (NumberFormatException e) {
+						parallel = 0;
+					}
+					if (parallel < 1) System.out.println("   Invalid thread count " + args[first]);
+				}
+				else System.out.println("   Unknown option " + args[first]);
+			}
+			args = java.util.Arrays.copyOfRange(args, first, args.length);
+			if (Batch.cache == null) Batch.cache = ParseCache.Default();
+
+			boolean several = args.length > 1 || args.length == 1 && new java.io.File(args[0]).isDirectory();
+			if (several && single != null) {
+				System.out.println("   " + single + " takes a single source file, not several or a directory");
+			}
+			else if (several) {
+				System.out.println("   Compiling " + Batch.Sources(args).size() + " source files");
+				Batch.Run(args, listing);
+			}
+			else if (args.length > 0) {
 				System.out.println("   Reading source file " + args[0]);
-				Scanner scanner = new Scanner(args[0]);
-				System.out.println("   Parsing source file " + args[0]);
-				Parser parser = new Parser(scanner);
-				parser.Parse();
+				StringBuilder listingBuf = new StringBuilder(1 << 16);
+				Appendable out = !listing ? null : buffered ? listingBuf : System.out;
+				Parser parser;
+				if (Batch.cache != null) {
+					System.out.println("   Parsing source file " + args[0]);
+					parser = Batch.cache.Parse(args[0], out, System.out, pipelined, parallel);
+					if (parser.scanner == null) System.out.println("   Parse taken from the cache in " + Batch.cache.dir);
+				} else {
+					Scanner scanner = new Scanner(args[0]);
+					if (parallel > 0) scanner.Parallel(parallel);
+					if (pipelined) scanner.Pipeline();
+					System.out.println("   Parsing source file " + args[0]);
+					parser = new Parser(scanner);
+					parser.out = out;
+					parser.Parse();
+				}
+				if (listingBuf.length() > 0) {
+					java.io.PrintWriter w = new java.io.PrintWriter(new java.io.BufferedWriter(new java.io.OutputStreamWriter(System.out), 1 << 16));
+					w.append(listingBuf);
+					w.flush();
+				}
+				if (classes && parser.errors.count == 0) {
+					CodeGen gen = new CodeGen();
+					gen.sourceFile = new java.io.File(args[0]).getName();
+					byte[] code = gen.Generate(parser.ast, parser.tokens, parser.fold, parser.errors);
+					if (code != null) {
+						try {
+							java.nio.file.Files.write(java.nio.file.Paths.get(gen.className + ".class"), code);
+						} catch (java.io.IOException e) {
+							throw new FatalError("Could not write " + gen.className + ".class");
+						}
+						System.out.println("   Wrote " + gen.className + ".class");
+					}
+				}
+				if ((registers > 0 || run) && parser.errors.count == 0) {
+					Ir ir = new Ir();
+					if (new IrGen().Generate(parser.ast, parser.tokens, parser.fold, parser.errors, ir)) {
+						if (registers > 0) {
+							ir.Allocate(registers);
+							ir.List(System.out);
+						}
+						if (run) {
+							System.out.println("   Running " + args[0]);
+							Interp interp = new Interp();
+							if (interp.Run(ir)) interp.List(System.out, ir, 16);
+							else System.out.println("-- line " + interp.failedLine + ": " + interp.failure);
+						}
+					}
+				}
 
 				if (parser.errors.count == 1)
 					System.out.println("-- 1 error dectected");
@@ -23,7 +120,7 @@ public class AdaBaby {
 
 			}
 			else
-				System.out.println("Syntax: JavaParser <java source file>");
+				System.out.println("Syntax: AdaBaby [-check | -buffered | -pipelined | -parallel[=n] | -class | -ir[=n] | -run | -cache=dir] <source file or directory> ...");
 
 		}
 
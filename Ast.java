@@ -0,0 +1,267 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------------
+// Ast  -- abstract syntax tree, nodes are kept in parallel arrays
+//-----------------------------------------------------------------------------------
+// Nodes are created bottom up by the parser: a node takes all nodes that were
+// created since its mark (see Mark) as children. The children of a node are
+// stored one after the other in child, so a node only records their range.
+class Ast {
+	// node kinds; tok is the token of the node, the children are listed after ':'
+	static final int UNIT    =  1; // procedure:   NAME {DECL} {stmt} NAME
+	static final int DECL    =  2; // first ident: NAME {NAME} (TYPE | ARRAY) [RANGE] [expr]
+	static final int NAME    =  3; // ident
+	static final int TYPE    =  4; // type name
+	static final int ARRAY   =  5; // array:       RANGE (TYPE | ARRAY)
+	static final int RANGE   =  6; // "..":        expr expr
+	static final int NULL    =  7; // null statement or null literal
+	static final int ASSIGN  =  8; // ":=":        (NAME | INDEXED) expr
+	static final int INDEXED =  9; // "(":         NAME expr
+	static final int BINARY  = 10; // operator:    expr expr
+	static final int NUMBER  = 11; // first token of the numeric literal, spans from .. to
+	static final int BOOL    = 12; // true or false
+	static final int PARENS  = 13; // "(":         expr
+	static final int EMPTY   = 14; // missing (deletable) expression, tok is -1
+
+	private static final int MIN_LENGTH = 64;
+
+	public int[] kind;       // node kind
+	public int[] tok;        // index of the node's token in the token table, -1 if none
+	public int[] from, to;   // first and last token of the node, -1 if none
+	public int[] childStart; // index of the first child in child
+	public int[] childCount; // number of children
+	public int[] child;      // children of all nodes
+	public int count;        // number of nodes
+	public int root = -1;    // the UNIT node
+	private int childLen;    // used length of child
+
+	private int[] stack;     // nodes that have no parent yet
+	private int sp;          // stack pointer
+
+	public Ast() {
+		kind = new int[MIN_LENGTH]; tok = new int[MIN_LENGTH];
+		from = new int[MIN_LENGTH]; to = new int[MIN_LENGTH];
+		childStart = new int[MIN_LENGTH]; childCount = new int[MIN_LENGTH];
+		child = new int[MIN_LENGTH];
+		stack = new int[MIN_LENGTH];
+	}
+
+	// forget all nodes but keep the arrays for the next unit
+	public void Clear() {
+		count = 0; childLen = 0; sp = 0; root = -1;
+	}
+
+	// replaces the nodes by copies of those of a, which keep their numbers
+	public void CopyFrom(Ast a) {
+		Clear();
+		if (kind.length < a.count) {
+			int n = a.kind.length;
+			kind = new int[n]; tok = new int[n]; from = new int[n]; to = new int[n];
+			childStart = new int[n]; childCount = new int[n];
+		}
+		if (child.length < a.childLen) child = new int[a.child.length];
+		System.arraycopy(a.kind, 0, kind, 0, a.count); System.arraycopy(a.tok, 0, tok, 0, a.count);
+		System.arraycopy(a.from, 0, from, 0, a.count); System.arraycopy(a.to, 0, to, 0, a.count);
+		System.arraycopy(a.childStart, 0, childStart, 0, a.count); System.arraycopy(a.childCount, 0, childCount, 0, a.count);
+		System.arraycopy(a.child, 0, child, 0, a.childLen);
+		count = a.count; childLen = a.childLen; root = a.root;
+	}
+
+	public int Child(int n, int i) {
+		return child[childStart[n] + i];
+	}
+
+	// the nodes created after this mark become the children of the next node
+	public int Mark() {
+		return sp;
+	}
+
+	// forget the nodes created since mark, they are no longer part of the tree
+	public void Release(int mark) {
+		sp = mark;
+	}
+
+	// make an existing node the next child, e.g. when a tree is rebuilt
+	public void Reuse(int node) {
+		Push(node);
+	}
+
+	// the first node of the subtree n, whose nodes are lowest(n) .. n
+	public int Lowest(int n) {
+		while (childCount[n] > 0) n = Child(n, 0);
+		return n;
+	}
+
+	// leaf for token tok
+	public int Leaf(int k, int tok) {
+		return Push(New(k, tok, tok, tok, childLen, 0));
+	}
+
+	// node for token tok whose children are the nodes created since mark;
+	// last is the last token of the node
+	public int Node(int k, int tok, int mark, int last) {
+		int n = sp - mark;
+		if (childLen + n > child.length) child = Arrays.copyOf(child, Math.max(2 * child.length, childLen + n));
+		System.arraycopy(stack, mark, child, childLen, n);
+		int first = tok;
+		if (n > 0 && from[stack[mark]] >= 0 && (first < 0 || from[stack[mark]] < first)) first = from[stack[mark]];
+		sp = mark;
+		int node = New(k, tok, first, last, childLen, n);
+		childLen += n;
+		return Push(node);
+	}
+
+	private int New(int k, int t, int first, int last, int start, int n) {
+		if (count == kind.length) Grow();
+		int i = count++;
+		kind[i] = k; tok[i] = t; from[i] = first; to[i] = last;
+		childStart[i] = start; childCount[i] = n;
+		return i;
+	}
+
+	private int Push(int node) {
+		if (sp == stack.length) stack = Arrays.copyOf(stack, 2 * sp);
+		stack[sp++] = node;
+		return node;
+	}
+
+	private void Grow() {
+		int n = 2 * kind.length;
+		kind = Arrays.copyOf(kind, n); tok = Arrays.copyOf(tok, n);
+		from = Arrays.copyOf(from, n); to = Arrays.copyOf(to, n);
+		childStart = Arrays.copyOf(childStart, n); childCount = Arrays.copyOf(childCount, n);
+	}
+
+	//---------- binary form ----------
+
+	// writes the nodes column by column, read back by Read
+	public void Write(Packed out) {
+		out.PutInt(count); out.PutInt(root); out.PutInt(childLen);
+		out.PutInts(kind, count, false); out.PutInts(tok, count, true); out.PutInts(from, count, true);
+		out.PutInts(to, count, true); out.PutInts(childStart, count, true); out.PutInts(childCount, count, false);
+		out.PutInts(child, childLen, true);
+	}
+
+	// replaces the nodes by the ones written by Write
+	public void Read(Packed in) {
+		Clear();
+		int n = in.GetInt(), r = in.GetInt(), len = in.GetInt();
+		if (n < 0 || len < 0 || n > in.len || len > in.len || r < -1 || r >= n) throw new FatalError("damaged tree");
+		if (n > kind.length) {
+			kind = new int[n]; tok = new int[n]; from = new int[n]; to = new int[n];
+			childStart = new int[n]; childCount = new int[n];
+		}
+		if (len > child.length) child = new int[len];
+		in.GetInts(kind, n, false); in.GetInts(tok, n, true); in.GetInts(from, n, true);
+		in.GetInts(to, n, true); in.GetInts(childStart, n, true); in.GetInts(childCount, n, false);
+		in.GetInts(child, len, true);
+		for (int i = 0; i < n; i++) {
+			if (childStart[i] < 0 || childCount[i] < 0 || childStart[i] + childCount[i] > len) throw new FatalError("damaged tree");
+		}
+		for (int i = 0; i < len; i++) if (child[i] < 0 || child[i] >= n) throw new FatalError("damaged tree");
+		count = n; root = r; childLen = len;
+	}
+
+	//---------- listing ----------
+
+	// writes the unit to out in the layout of the compiler listing
+	public void List(Appendable out, TokenTable tokens) {
+		if (root < 0) return;
+		try {
+			List(out instanceof StringBuilder ? (StringBuilder) out : new StringBuilder(), out, tokens);
+		} catch (IOException e) {
+			throw new FatalError(e.getMessage());
+		}
+	}
+
+	private void List(StringBuilder b, Appendable out, TokenTable tokens) throws IOException {
+		b.append("ADASTART\n");
+		int n = childCount[root], i = 0;
+		b.append("\tprocedure ");
+		if (i < n && kind[Child(root, i)] == NAME) Expr(b, Child(root, i++), tokens);
+		b.append(" is\nDeclarations:\n");
+		for (; i < n && kind[Child(root, i)] == DECL; i++) Decl(b, Child(root, i), tokens);
+		b.append("\tbegin\nStatements:\n");
+		for (; i < n && (kind[Child(root, i)] == ASSIGN || kind[Child(root, i)] == NULL); i++) Stmt(b, Child(root, i), tokens);
+		b.append("\tend ");
+		if (i < n) Expr(b, Child(root, i), tokens);
+		b.append(";\nADASTOP\n");
+		if (b != out) out.append(b);
+	}
+
+	private void Decl(StringBuilder b, int n, TokenTable tokens) {
+		int cnt = childCount[n], i = 0;
+		b.append('\t');
+		for (; i < cnt && kind[Child(n, i)] == NAME; i++) {
+			if (i > 0) b.append(", ");
+			Expr(b, Child(n, i), tokens);
+		}
+		b.append(": ");
+		if (i < cnt) Type(b, Child(n, i++), tokens);
+		if (i < cnt && kind[Child(n, i)] == RANGE) {
+			b.append(" range ");
+			Expr(b, Child(n, i++), tokens);
+		}
+		if (i < cnt) {
+			b.append(" := ");
+			Expr(b, Child(n, i), tokens);
+		}
+		b.append(";\n");
+	}
+
+	private void Type(StringBuilder b, int n, TokenTable tokens) {
+		if (kind[n] == ARRAY) {
+			b.append("array ( ");
+			if (childCount[n] > 0) Expr(b, Child(n, 0), tokens);
+			b.append(" ) of ");
+			if (childCount[n] > 1) Type(b, Child(n, 1), tokens);
+		} else Token(b, tok[n], tokens);
+	}
+
+	private void Stmt(StringBuilder b, int n, TokenTable tokens) {
+		b.append('\t');
+		if (kind[n] == ASSIGN) {
+			Expr(b, Child(n, 0), tokens);
+			b.append(" := ");
+			if (childCount[n] > 1) Expr(b, Child(n, 1), tokens);
+		} else Expr(b, n, tokens);
+		b.append(";\n");
+	}
+
+	private void Expr(StringBuilder b, int n, TokenTable tokens) {
+		switch (kind[n]) {
+			case BINARY: case RANGE:
+				if (kind[Child(n, 0)] == EMPTY) { // unary + or -
+					Token(b, tok[n], tokens);
+				} else {
+					Expr(b, Child(n, 0), tokens);
+					b.append(' '); Token(b, tok[n], tokens); b.append(' ');
+				}
+				Expr(b, Child(n, 1), tokens);
+				break;
+			case INDEXED:
+				Expr(b, Child(n, 0), tokens);
+				b.append('(');
+				Expr(b, Child(n, 1), tokens);
+				b.append(')');
+				break;
+			case PARENS:
+				b.append('(');
+				Expr(b, Child(n, 0), tokens);
+				b.append(')');
+				break;
+			case NUMBER:
+				for (int i = from[n]; i <= to[n]; i++) Token(b, i, tokens);
+				break;
+			case EMPTY:
+				break;
+			default:
+				Token(b, tok[n], tokens);
+		}
+	}
+
+	private static void Token(StringBuilder b, int i, TokenTable tokens) {
+		if (i >= 0) b.append(tokens.Val(i));
+	}
+}
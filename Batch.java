@@ -0,0 +1,130 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+//-----------------------------------------------------------------------------------
+// Batch  -- compiles many units in parallel, one Scanner/Parser pair per unit
+//-----------------------------------------------------------------------------------
+class Batch {
+	static final String SUFFIX = ".adb";
+	static ParseCache cache; // parse results of earlier runs, null if none
+
+	// workspaces of finished units; their arrays have grown already and are reused
+	// by the next units
+	private static final ConcurrentLinkedQueue<Workspace> idle = new ConcurrentLinkedQueue<Workspace>();
+	private static final int MAX_IDLE = 2 * Runtime.getRuntime().availableProcessors();
+	private static final int MAX_TOKENS = 1 << 20; // larger workspaces are not kept
+
+	// the threads of all batches, so the requests that a CompileServer handles at
+	// once share the processors rather than each bringing threads for all of them
+	private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	static class Unit {
+		String file;    // source file
+		int errors;     // errors.count of the unit
+		boolean cached; // the unit was replayed from the parse cache
+		String output;  // semantic action output and error messages of the unit
+	}
+
+	// the source files named by args; directories stand for all .adb files in them
+	static List<String> Sources(String[] args) {
+		List<String> files = new ArrayList<String>();
+		for (String arg : args) Add(new File(arg), files, true);
+		return files;
+	}
+
+	private static void Add(File f, List<String> files, boolean named) {
+		if (f.isDirectory()) {
+			File[] list = f.listFiles();
+			if (list == null) return;
+			Arrays.sort(list);
+			for (File g : list) Add(g, files, false);
+		} else if (named || f.getName().endsWith(SUFFIX)) {
+			files.add(f.getPath());
+		}
+	}
+
+	// compile one unit, its output is collected instead of printed;
+	// without listing only the error messages are kept
+	static Unit Compile(String file, boolean listing) {
+		Unit u = new Unit();
+		u.file = file;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes);
+		Workspace w = null;
+		try {
+			Parser parser;
+			if (cache != null) {
+				parser = cache.Parse(file, listing ? out : null, out, false, 0);
+				u.cached = parser.scanner == null;
+			} else {
+				w = idle.poll();
+				if (w == null) w = new Workspace();
+				parser = new Parser(new Scanner(file), w);
+				parser.out = listing ? out : null;
+				parser.errors.errorStream = out;
+				parser.Parse();
+			}
+			u.errors = parser.errors.count;
+		} catch (FatalError e) {
+			out.println("-- " + e.getMessage());
+			u.errors = 1;
+		} catch (RuntimeException e) { // a bug met by this unit, the others are compiled still
+			out.println("-- " + file + ": " + e);
+			u.errors = 1;
+		} finally {
+			if (w != null && w.tokens.count <= MAX_TOKENS && idle.size() < MAX_IDLE) idle.add(w);
+		}
+		out.flush();
+		u.output = bytes.toString();
+		return u;
+	}
+
+	// compile all files in parallel; done gets the units in the order of files, each
+	// as soon as it and the ones before it are finished
+	static void Compile(List<String> files, boolean listing, Consumer<Unit> done) {
+		List<Future<Unit>> jobs = new ArrayList<Future<Unit>>();
+		try {
+			for (final String file : files) jobs.add(pool.submit(() -> Compile(file, listing)));
+			for (int i = 0; i < jobs.size(); i++) {
+				Unit u;
+				try {
+					u = jobs.get(i).get();
+				} catch (Exception e) {
+					throw new FatalError("could not compile " + files.get(i) + ": " + e.getCause());
+				}
+				done.accept(u);
+			}
+		} finally {
+			for (Future<Unit> job : jobs) job.cancel(false); // the units left if one of them failed
+		}
+	}
+
+	// compile the units named by args and report them in order, returns the total error count
+	static int Run(String[] args, boolean listing) {
+		return Run(args, listing, System.out);
+	}
+
+	// the output of a unit is written (and flushed, for CompileServer) when it is finished
+	static int Run(String[] args, boolean listing, PrintStream out) {
+		List<String> files = Sources(args);
+		int[] total = {0, 0}; // errors, units from the cache
+		Compile(files, listing, u -> {
+			out.print(u.output);
+			out.println(u.file + ": " + u.errors + " errors detected");
+			out.flush();
+			total[0] += u.errors;
+			if (u.cached) total[1]++;
+		});
+		out.println(files.size() + " units, " + total[0] + " errors detected");
+		if (cache != null) out.println(total[1] + " units from the parse cache in " + cache.dir);
+		return total[0];
+	}
+}
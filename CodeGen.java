@@ -0,0 +1,447 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+//-----------------------------------------------------------------------------------
+// CodeGen  -- translates a unit into a JVM class
+//-----------------------------------------------------------------------------------
+// The procedure becomes the static method run() of a class named after it, and
+// main(String[]) calls run(). Integer and Boolean variables are int locals, arrays
+// are int[] locals indexed from 0. Arithmetic uses Math.addExact and friends, so
+// overflow raises ArithmeticException like a failed range check; the range checks
+// that Fold could not prove are calls of check(value, lo, hi). The class file has
+// version 49, which needs no stack map frames.
+class CodeGen {
+	// opcodes
+	static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13;
+	static final int ILOAD = 0x15, ALOAD = 0x19, ISTORE = 0x36, ASTORE = 0x3a, IASTORE = 0x4f;
+	static final int DUP = 0x59, IADD = 0x60, ISUB = 0x64, ISHR = 0x7a, IAND = 0x7e, IINC = 0x84;
+	static final int IFEQ = 0x99, IFGE = 0x9c, IF_ICMPLT = 0xa1, IF_ICMPGT = 0xa3, GOTO = 0xa7;
+	static final int IRETURN = 0xac, RETURN = 0xb1, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+	static final int NEW = 0xbb, NEWARRAY = 0xbc, ATHROW = 0xbf, T_INT = 10;
+
+	private Ast ast;
+	private TokenTable tokens;
+	private Fold fold;
+	private Errors errors;
+	public String className;            // name of the class, the name of the procedure
+	public String sourceFile;           // name of the source file for stack traces, null if none
+
+	private ConstPool pool;
+	private Code code;
+	private int[] slot = new int[16];   // symbol -> local, -1 if not a variable
+	private int[] lower = new int[16];  // symbol -> local with the lower index bound, -1 if static
+	private int[] range = new int[16];  // symbol -> first of two locals with the bounds of a dynamic range
+	private int locals;                 // number of locals of run()
+	private boolean failed;             // an unsupported construct was reported
+
+	// the class file of the unit ast.root, null if it cannot be translated
+	// (the reasons are reported to errors); fold must have run on the unit
+	public byte[] Generate(Ast ast, TokenTable tokens, Fold fold, Errors errors) {
+		this.ast = ast; this.tokens = tokens; this.fold = fold; this.errors = errors;
+		int root = ast.root, n = ast.childCount[root];
+		className = tokens.Val(ast.tok[ast.Child(root, 0)]);
+		pool = new ConstPool();
+		failed = false;
+		locals = 0;
+		Arrays.fill(slot, -1);
+		code = new Code();
+		int c = 1;
+		for (; c < n && ast.kind[ast.Child(root, c)] == Ast.DECL; c++) Decl(ast.Child(root, c));
+		for (; c < n - 1; c++) Stmt(ast.Child(root, c));
+		code.Op(RETURN, 0);
+		if (failed) return null;
+		Code run = code;
+		run.maxLocals = locals;
+		return Write(run);
+	}
+
+	//---------- declarations and statements ----------
+
+	private void Decl(int d) {
+		int n = ast.childCount[d], i = 0;
+		while (ast.kind[ast.Child(d, i)] == Ast.NAME) i++;
+		int names = i, type = ast.Child(d, i++), r = -1, init = -1;
+		if (i < n && ast.kind[ast.Child(d, i)] == Ast.RANGE) r = ast.Child(d, i++);
+		if (i < n) init = ast.Child(d, i);
+		int s0 = Symbol(ast.Child(d, 0));
+		int elem = type, lo = -1, hi = -1;
+		if (ast.kind[type] == Ast.ARRAY) {
+			elem = ast.Child(type, 1);
+			if (ast.kind[elem] == Ast.ARRAY) { Unsupported(elem, "arrays of arrays"); return; }
+			if (init >= 0) { Unsupported(init, "initial values of arrays"); return; }
+		}
+		int k = tokens.kind[ast.tok[elem]];
+		if (k != Parser._integer && k != Parser._boolean) { Unsupported(elem, tokens.Val(ast.tok[elem])); return; }
+		if (r >= 0 && fold.range[s0] == Fold.DYNAMIC) { // bounds are evaluated once
+			lo = locals++; hi = locals++;
+			Expr(ast.Child(r, 0)); code.Local(ISTORE, lo);
+			Expr(ast.Child(r, 1)); code.Local(ISTORE, hi);
+		}
+		for (int j = 0; j < names; j++) {
+			int s = Symbol(ast.Child(d, j));
+			if (s < 0) continue;
+			Grow(s);
+			range[s] = lo;
+			slot[s] = locals++;
+			if (ast.kind[type] == Ast.ARRAY) {
+				int ir = ast.Child(type, 0);
+				lower[s] = -1;
+				if (fold.index[s] == Fold.STATIC) {
+					Const(Math.max(0, fold.last[s] - fold.first[s] + 1), ir);
+				} else {
+					lower[s] = locals++;
+					Expr(ast.Child(ir, 0)); code.Local(ISTORE, lower[s]);
+					Expr(ast.Child(ir, 1)); code.Local(ILOAD, lower[s]); code.Op(ISUB, -1);
+					Const(1, ir); code.Op(IADD, -1); // hi - lo + 1, at least 0
+					Const(0, ir); code.Invoke(INVOKESTATIC, pool.Method("java/lang/Math", "max", "(II)I"), -1);
+				}
+				code.Op(NEWARRAY, 0); code.U1(T_INT);
+				code.Local(ASTORE, slot[s]);
+			} else {
+				if (init >= 0) {
+					Expr(init);
+					if (fold.check[d]) Check(s, init);
+				} else Const(0, d);
+				code.Local(ISTORE, slot[s]);
+			}
+		}
+	}
+
+	private void Stmt(int n) {
+		code.Line(tokens.line[ast.from[n]]);
+		if (ast.kind[n] != Ast.ASSIGN) return; // null
+		int target = ast.Child(n, 0), e = ast.Child(n, 1);
+		if (ast.kind[target] == Ast.INDEXED) {
+			int s = Symbol(ast.Child(target, 0));
+			if (s < 0) return;
+			if (fold.index[s] == Fold.NONE) { Unsupported(target, "indexing of a scalar"); return; }
+			code.Local(ALOAD, slot[s]);
+			int x = ast.Child(target, 1);
+			if (lower[s] < 0 && fold.constant[x]) Const(fold.value[x] - fold.first[s], x);
+			else {
+				Expr(x);
+				if (lower[s] >= 0) { code.Local(ILOAD, lower[s]); code.Op(ISUB, -1); }
+				else if (fold.first[s] != 0) { Const(fold.first[s], x); code.Op(ISUB, -1); }
+			}
+			Expr(e);
+			if (fold.check[n]) Check(s, e);
+			code.Op(IASTORE, -3);
+		} else {
+			int s = Symbol(target);
+			if (s < 0) return;
+			if (fold.index[s] != Fold.NONE) { Unsupported(target, "assignment of whole arrays"); return; }
+			Expr(e);
+			if (fold.check[n]) Check(s, e);
+			code.Local(ISTORE, slot[s]);
+		}
+	}
+
+	// the value on the stack must lie within the range of symbol s
+	private void Check(int s, int e) {
+		if (range[s] >= 0) {
+			code.Local(ILOAD, range[s]); code.Local(ILOAD, range[s] + 1);
+		} else {
+			Const(fold.lo[s], e); Const(fold.hi[s], e);
+		}
+		code.Invoke(INVOKESTATIC, pool.Method(className, "check", "(III)I"), -2);
+	}
+
+	//---------- expressions ----------
+
+	private void Expr(int n) {
+		if (fold.constant[n]) { Const(fold.value[n], n); return; }
+		switch (ast.kind[n]) {
+			case Ast.NAME: {
+				int s = Symbol(n);
+				if (s < 0) return;
+				if (fold.index[s] != Fold.NONE) { Unsupported(n, "arrays in expressions"); return; }
+				code.Local(ILOAD, slot[s]);
+				break;
+			}
+			case Ast.PARENS:
+				Expr(ast.Child(n, 0));
+				break;
+			case Ast.BOOL:
+				Const(tokens.kind[ast.tok[n]] == Parser._true ? 1 : 0, n);
+				break;
+			case Ast.BINARY: {
+				int l = ast.Child(n, 0), r = ast.Child(n, 1), op = tokens.kind[ast.tok[n]];
+				boolean unary = ast.kind[l] == Ast.EMPTY;
+				if (ast.kind[r] == Ast.EMPTY) { Unsupported(n, "operator without right operand"); return; }
+				if (!unary) Expr(l);
+				Expr(r);
+				if (op == Parser._plus) {
+					if (!unary) code.Invoke(INVOKESTATIC, pool.Method("java/lang/Math", "addExact", "(II)I"), -1);
+				} else if (op == Parser._minus) {
+					if (unary) code.Invoke(INVOKESTATIC, pool.Method("java/lang/Math", "negateExact", "(I)I"), 0);
+					else code.Invoke(INVOKESTATIC, pool.Method("java/lang/Math", "subtractExact", "(II)I"), -1);
+				} else if (op == Parser._mult) {
+					code.Invoke(INVOKESTATIC, pool.Method("java/lang/Math", "multiplyExact", "(II)I"), -1);
+				} else {
+					code.Invoke(INVOKESTATIC, pool.Method(className, "pow", "(II)I"), -1);
+				}
+				break;
+			}
+			default:
+				Unsupported(n, "this expression");
+		}
+	}
+
+	private void Const(long v, int n) {
+		if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+			Error(n, "value " + v + " does not fit into Integer");
+			failed = true;
+		} else if (v >= -1 && v <= 5) code.Op(ICONST_0 + (int) v, 1);
+		else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) { code.Op(BIPUSH, 1); code.U1((int) v); }
+		else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) { code.Op(SIPUSH, 1); code.U2((int) v); }
+		else code.Ldc(pool.Integer((int) v));
+	}
+
+	private int Symbol(int name) {
+		return fold.syms.Lookup(tokens, ast.tok[name]);
+	}
+
+	private void Grow(int s) {
+		if (s < slot.length) return;
+		int n = Math.max(2 * slot.length, s + 1), old = slot.length;
+		slot = Arrays.copyOf(slot, n); lower = Arrays.copyOf(lower, n); range = Arrays.copyOf(range, n);
+		Arrays.fill(slot, old, n, -1);
+	}
+
+	private void Unsupported(int n, String what) {
+		Error(n, what + " cannot be translated");
+		failed = true;
+	}
+
+	private void Error(int n, String msg) {
+		int tok = ast.from[n] >= 0 ? ast.from[n] : ast.tok[n];
+		errors.SemErr(tokens.line[tok], tokens.col[tok], msg);
+	}
+
+	//---------- class file ----------
+
+	private byte[] Write(Code run) {
+		Code main = new Code();
+		main.Invoke(INVOKESTATIC, pool.Method(className, "run", "()V"), 0);
+		main.Op(RETURN, 0);
+		main.maxLocals = 1;
+		Code check = CheckMethod(), pow = PowMethod();
+		int thisClass = pool.Class(className), superClass = pool.Class("java/lang/Object");
+		int[] names = {pool.Utf8("run"), pool.Utf8("main"), pool.Utf8("check"), pool.Utf8("pow")};
+		int[] types = {pool.Utf8("()V"), pool.Utf8("([Ljava/lang/String;)V"), pool.Utf8("(III)I"), pool.Utf8("(II)I")};
+		int[] access = {0x0009, 0x0009, 0x000a, 0x000a}; // public static, private static
+		Code[] codes = {run, main, check, pow};
+		int codeName = pool.Utf8("Code"), linesName = pool.Utf8("LineNumberTable");
+		int sourceName = sourceFile == null ? 0 : pool.Utf8("SourceFile");
+		if (sourceFile != null) pool.Utf8(sourceFile);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0); out.writeShort(49);
+			pool.Write(out);
+			out.writeShort(0x0031); // public final super
+			out.writeShort(thisClass); out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(codes.length);
+			for (int i = 0; i < codes.length; i++) {
+				Code c = codes[i];
+				out.writeShort(access[i]); out.writeShort(names[i]); out.writeShort(types[i]);
+				out.writeShort(1);
+				int lines = c.lines == 0 ? 0 : 8 + 4 * c.lines;
+				out.writeShort(codeName); out.writeInt(12 + c.len + (lines > 0 ? lines : 0));
+				out.writeShort(c.maxStack); out.writeShort(c.maxLocals);
+				out.writeInt(c.len); out.write(c.buf, 0, c.len);
+				out.writeShort(0); // exception table
+				if (lines > 0) {
+					out.writeShort(1);
+					out.writeShort(linesName); out.writeInt(2 + 4 * c.lines);
+					out.writeShort(c.lines);
+					for (int j = 0; j < c.lines; j++) { out.writeShort(c.linePc[j]); out.writeShort(c.line[j]); }
+				} else out.writeShort(0);
+			}
+			if (sourceFile == null) out.writeShort(0); // class attributes
+			else {
+				out.writeShort(1);
+				out.writeShort(sourceName); out.writeInt(2); out.writeShort(pool.Utf8(sourceFile));
+			}
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new FatalError(e.getMessage());
+		}
+	}
+
+	// static int check(int v, int lo, int hi): v if lo <= v <= hi, else ArithmeticException
+	private Code CheckMethod() {
+		Code c = new Code();
+		int fail = c.Label();
+		c.Local(ILOAD, 0); c.Local(ILOAD, 1); c.Jump(IF_ICMPLT, fail, -2);
+		c.Local(ILOAD, 0); c.Local(ILOAD, 2); c.Jump(IF_ICMPGT, fail, -2);
+		c.Local(ILOAD, 0); c.Op(IRETURN, -1);
+		c.Mark(fail);
+		Throw(c, "range check failed");
+		c.maxLocals = 3;
+		return c;
+	}
+
+	// static int pow(int a, int b): a ** b by squaring, overflow and b < 0 raise ArithmeticException
+	private Code PowMethod() {
+		Code c = new Code();
+		int ok = c.Label(), loop = c.Label(), even = c.Label(), done = c.Label();
+		c.Local(ILOAD, 1); c.Jump(IFGE, ok, -1);
+		Throw(c, "negative exponent");
+		c.Mark(ok);
+		c.Op(ICONST_0 + 1, 1); c.Local(ISTORE, 2);
+		c.Mark(loop);
+		c.Local(ILOAD, 1); c.Op(ICONST_0 + 1, 1); c.Op(IAND, -1); c.Jump(IFEQ, even, -1);
+		c.Local(ILOAD, 2); c.Local(ILOAD, 0);
+		c.Invoke(INVOKESTATIC, pool.Method("java/lang/Math", "multiplyExact", "(II)I"), -1);
+		c.Local(ISTORE, 2);
+		c.Mark(even);
+		c.Local(ILOAD, 1); c.Op(ICONST_0 + 1, 1); c.Op(ISHR, -1); c.Local(ISTORE, 1);
+		c.Local(ILOAD, 1); c.Jump(IFEQ, done, -1);
+		c.Local(ILOAD, 0); c.Local(ILOAD, 0);
+		c.Invoke(INVOKESTATIC, pool.Method("java/lang/Math", "multiplyExact", "(II)I"), -1);
+		c.Local(ISTORE, 0);
+		c.Jump(GOTO, loop, 0);
+		c.Mark(done);
+		c.Local(ILOAD, 2); c.Op(IRETURN, -1);
+		c.maxLocals = 3;
+		return c;
+	}
+
+	private void Throw(Code c, String msg) {
+		c.Op(NEW, 1); c.U2(pool.Class("java/lang/ArithmeticException"));
+		c.Op(DUP, 1);
+		c.Ldc(pool.String(msg));
+		c.Invoke(INVOKESPECIAL, pool.Method("java/lang/ArithmeticException", "<init>", "(Ljava/lang/String;)V"), -2);
+		c.Op(ATHROW, -1);
+	}
+
+	//---------- bytecode of one method ----------
+
+	static class Code {
+		byte[] buf = new byte[256];
+		int len;
+		int stack, maxStack, maxLocals;
+		int[] labelPc = new int[8]; int labels;       // pc of each label, -1 until marked
+		int[] fixPc = new int[8], fixLabel = new int[8]; int fixes; // jumps to labels
+		int[] linePc = new int[16], line = new int[16]; int lines; // LineNumberTable
+
+		void U1(int b) {
+			if (len == buf.length) buf = Arrays.copyOf(buf, 2 * len);
+			buf[len++] = (byte) b;
+		}
+
+		void U2(int v) { U1(v >> 8); U1(v); }
+
+		// opcode op, which changes the stack depth by delta
+		void Op(int op, int delta) {
+			U1(op);
+			stack += delta;
+			if (stack > maxStack) maxStack = stack;
+		}
+
+		void Local(int op, int local) {
+			int delta = op == ISTORE || op == ASTORE ? -1 : 1;
+			if (local <= 3) Op((op == ILOAD ? 0x1a : op == ALOAD ? 0x2a : op == ISTORE ? 0x3b : 0x4b) + local, delta);
+			else if (local <= 255) { Op(op, delta); U1(local); }
+			else { Op(0xc4, delta); U1(op); U2(local); } // wide
+			if (op == ISTORE || op == ASTORE) maxLocals = Math.max(maxLocals, local + 1);
+		}
+
+		void Ldc(int index) {
+			if (index <= 255) { Op(LDC, 1); U1(index); } else { Op(LDC_W, 1); U2(index); }
+		}
+
+		void Invoke(int op, int method, int delta) {
+			Op(op, delta); U2(method);
+		}
+
+		int Label() {
+			if (labels == labelPc.length) labelPc = Arrays.copyOf(labelPc, 2 * labels);
+			labelPc[labels] = -1;
+			return labels++;
+		}
+
+		void Mark(int label) {
+			labelPc[label] = len;
+			int n = 0;
+			for (int i = 0; i < fixes; i++) {
+				if (fixLabel[i] != label) { fixPc[n] = fixPc[i]; fixLabel[n++] = fixLabel[i]; continue; }
+				int off = len - fixPc[i];
+				buf[fixPc[i] + 1] = (byte) (off >> 8); buf[fixPc[i] + 2] = (byte) off;
+			}
+			fixes = n;
+		}
+
+		void Jump(int op, int label, int delta) {
+			int pc = len;
+			Op(op, delta);
+			if (labelPc[label] >= 0) { U2(labelPc[label] - pc); return; }
+			if (fixes == fixPc.length) { fixPc = Arrays.copyOf(fixPc, 2 * fixes); fixLabel = Arrays.copyOf(fixLabel, 2 * fixes); }
+			fixPc[fixes] = pc; fixLabel[fixes++] = label;
+			U2(0);
+		}
+
+		// the code from here on is for source line l
+		void Line(int l) {
+			if (lines == line.length) { linePc = Arrays.copyOf(linePc, 2 * lines); line = Arrays.copyOf(line, 2 * lines); }
+			linePc[lines] = len; line[lines++] = l;
+		}
+	}
+
+	//---------- constant pool ----------
+
+	static class ConstPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final HashMap<String, Integer> index = new HashMap<String, Integer>(); // entry -> index
+		private int count = 1;
+
+		int Utf8(String s) {
+			Integer i = index.get("U" + s);
+			if (i != null) return i;
+			try { out.writeByte(1); out.writeUTF(s); } catch (IOException e) { throw new FatalError(e.getMessage()); }
+			index.put("U" + s, count);
+			return count++;
+		}
+
+		int Integer(int v) { return Entry("I" + v, 3, v, -1); }
+
+		int Class(String name) { return Entry("C" + name, 7, Utf8(name), -1); }
+
+		int String(String s) { return Entry("S" + s, 8, Utf8(s), -1); }
+
+		int Method(String owner, String name, String type) {
+			int c = Class(owner), nt = Entry("N" + name + " " + type, 12, Utf8(name), Utf8(type));
+			return Entry("M" + owner + "." + name + type, 10, c, nt);
+		}
+
+		// entry with tag and one int (Integer) or one or two u2 (b >= 0) operands
+		private int Entry(String key, int tag, int a, int b) {
+			Integer i = index.get(key);
+			if (i != null) return i;
+			try {
+				out.writeByte(tag);
+				if (tag == 3) out.writeInt(a);
+				else { out.writeShort(a); if (b >= 0) out.writeShort(b); }
+			} catch (IOException e) {
+				throw new FatalError(e.getMessage());
+			}
+			index.put(key, count);
+			return count++;
+		}
+
+		void Write(DataOutputStream o) throws IOException {
+			o.writeShort(count);
+			out.flush();
+			bytes.writeTo(o);
+		}
+	}
+}
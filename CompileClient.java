@@ -0,0 +1,60 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+//-----------------------------------------------------------------------------------
+// CompileClient  -- java CompileClient <arguments of compile>
+//-----------------------------------------------------------------------------------
+// Sends the arguments to a CompileServer and prints its output; the exit status is
+// 1 if there were errors. File names are made absolute, because the server has a
+// working directory of its own. Without a server the units are compiled here, as
+// compile would. -stop stops the server.
+class CompileClient {
+
+	// send args to the server on socket and copy its output to sink; returns the
+	// number of errors, -1 if no server is listening
+	static int Request(String socket, String[] args, OutputStream sink) throws IOException {
+		SocketChannel ch;
+		try {
+			ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+			ch.connect(UnixDomainSocketAddress.of(socket));
+		} catch (IOException e) {
+			return -1;
+		}
+		try (SocketChannel c = ch) {
+			DataOutputStream out = new DataOutputStream(Channels.newOutputStream(c));
+			out.writeInt(CompileServer.MAGIC);
+			out.writeInt(args.length);
+			for (String a : args) out.writeUTF(a.equals(CompileServer.STOP) ? a : new File(a).getAbsolutePath());
+			out.flush();
+			DataInputStream in = new DataInputStream(Channels.newInputStream(c));
+			byte[] buf = new byte[1 << 16];
+			for (int n; (n = in.readInt()) > 0; ) {
+				while (n > 0) {
+					int k = in.read(buf, 0, Math.min(n, buf.length));
+					if (k < 0) throw new IOException("connection closed");
+					sink.write(buf, 0, k);
+					n -= k;
+				}
+			}
+			sink.flush();
+			return in.readInt();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int errors = Request(CompileServer.Socket().toString(), args, System.out);
+		if (errors < 0) {
+			if (args.length == 1 && args[0].equals(CompileServer.STOP)) return;
+			Batch.cache = ParseCache.Default(); // no server
+			errors = CompileServer.Compile(args, System.out);
+		}
+		System.exit(errors > 0 ? 1 : 0);
+	}
+}
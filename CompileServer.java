@@ -0,0 +1,193 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//-----------------------------------------------------------------------------------
+// CompileServer  -- compiles units for CompileClient in a long-lived JVM
+//-----------------------------------------------------------------------------------
+// The server listens on a Unix domain socket, so a compile pays neither for JVM
+// startup nor for loading and warming up the scanner and parser; Batch keeps the
+// token tables and trees of finished units for the next ones. Scanner and Parser
+// themselves are not pooled: both are bound to one source by their constructors
+// and hold the state of its parse, and what they allocate besides the pooled
+// arrays is small. A request is the arguments of compile; the output that compile
+// would print is sent back in frames as each unit is finished, followed by the
+// number of errors. Only one server listens on a socket, and only its owner can
+// connect to it.
+//
+//   request:  MAGIC, argument count, arguments (writeUTF)
+//   response: {length > 0, bytes of output} 0, error count
+class CompileServer {
+	static final int MAGIC = 0x41424331;  // "ABC1", changes with the protocol
+	static final String STOP = "-stop";   // the only argument of a request that stops the server
+
+	// the socket named by -Dadababy.socket, by default adababy-<user>.sock in the temporary directory
+	static Path Socket() {
+		String s = System.getProperty("adababy.socket");
+		if (s == null) s = new File(System.getProperty("java.io.tmpdir"), "adababy-" + System.getProperty("user.name") + ".sock").getPath();
+		return Paths.get(s);
+	}
+
+	private final Path socket;
+	private final ServerSocketChannel server;
+	private final ExecutorService workers;
+	private volatile boolean stopped;
+
+	public CompileServer(Path socket, int threads) throws IOException {
+		this.socket = socket;
+		try (SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+			ch.connect(UnixDomainSocketAddress.of(socket));
+			throw new IOException("A server is listening on " + socket + " already");
+		} catch (SocketException | NoSuchFileException e) {
+			// none, a socket file is left by a server that did not stop
+		}
+		// the socket is bound in a directory only we can enter and made private
+		// before it is renamed to socket, so nobody else can connect in between
+		Path parent = socket.toAbsolutePath().getParent(), dir;
+		try {
+			dir = Files.createTempDirectory(parent, ".adababy", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		} catch (UnsupportedOperationException e) {
+			dir = Files.createTempDirectory(parent, ".adababy"); // not a POSIX file system, parent has to protect the socket
+		}
+		Path bound = dir.resolve("s");
+		server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			server.bind(UnixDomainSocketAddress.of(bound));
+			try {
+				Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+			} catch (UnsupportedOperationException e) {
+				// see above
+			}
+			Files.move(bound, socket, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		} finally {
+			Files.deleteIfExists(bound);
+			Files.delete(dir);
+		}
+		workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "adababy-compile");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	// accept requests until one of them stops the server
+	public void Serve() throws IOException {
+		try {
+			while (!stopped) {
+				SocketChannel ch;
+				try {
+					ch = server.accept();
+				} catch (IOException e) {
+					if (stopped) break;
+					throw e;
+				}
+				workers.execute(() -> Handle(ch));
+			}
+		} finally {
+			Stop();
+		}
+	}
+
+	public void Stop() {
+		stopped = true;
+		try {
+			server.close();
+			Files.deleteIfExists(socket);
+		} catch (IOException e) {
+			// the socket file is removed by the next server
+		}
+		workers.shutdown();
+	}
+
+	private void Handle(SocketChannel ch) {
+		try (SocketChannel c = ch) {
+			DataInputStream in = new DataInputStream(Channels.newInputStream(c));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(c), 1 << 16));
+			if (in.readInt() != MAGIC) return;
+			String[] args = new String[in.readInt()];
+			for (int i = 0; i < args.length; i++) args[i] = in.readUTF();
+			int errors = 0;
+			boolean stop = args.length == 1 && args[0].equals(STOP);
+			if (!stop) {
+				PrintStream p = new PrintStream(new BufferedOutputStream(new Frames(out), 1 << 16), false);
+				errors = Compile(args, p);
+				p.flush();
+			}
+			out.writeInt(0);
+			out.writeInt(errors);
+			out.flush();
+			if (stop) Stop(); // after the answer: the JVM ends with Serve
+		} catch (IOException e) {
+			// the client is gone
+		}
+	}
+
+	// what compile prints for args, to out; returns the number of errors
+	static int Compile(String[] args, PrintStream out) {
+		if (args.length == 0) {
+			out.println("Syntax: compile <source file or directory> ...");
+			return 1;
+		}
+		if (args.length > 1 || new File(args[0]).isDirectory()) return Batch.Run(args, true, out);
+		Batch.Unit u = Batch.Compile(args[0], true);
+		out.print(u.output);
+		out.println(u.errors + " errors detected");
+		return u.errors;
+	}
+
+	// a frame per write: its length, then the bytes
+	private static class Frames extends OutputStream {
+		private final DataOutputStream out;
+
+		Frames(DataOutputStream out) { this.out = out; }
+
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return;
+			out.writeInt(len);
+			out.write(b, off, len);
+			out.flush();
+		}
+	}
+
+	// java CompileServer [threads]
+	public static void main(String[] args) throws IOException {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		Batch.cache = ParseCache.Default();
+		Path socket = Socket();
+		CompileServer s;
+		try {
+			s = new CompileServer(socket, threads);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		System.out.println("AdaBaby compile server listening on " + socket);
+		s.Serve();
+	}
+}
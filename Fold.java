@@ -0,0 +1,282 @@
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------------
+// Fold  -- evaluates constant expressions and proves range and index constraints
+//-----------------------------------------------------------------------------------
+// Runs over the tree of a unit without errors. Expressions made of numeric literals
+// are evaluated with long arithmetic. An initial value, assigned value or index
+// that is constant and lies within its declared range needs no check at run time;
+// one outside of it is reported. Everything that depends on a variable keeps its
+// check.
+class Fold {
+	static final long INT_FIRST = Integer.MIN_VALUE, INT_LAST = Integer.MAX_VALUE; // range of Integer
+
+	// per node of the tree
+	public long[] value;        // value of a constant expression
+	public boolean[] constant;  // the node is a constant expression
+	public boolean[] check;     // the DECL, ASSIGN or INDEXED node needs a range check at run time
+
+	// constraints of a symbol
+	static final int NONE    = 0; // no range
+	static final int TYPE    = 1; // the range of Integer, only constants are checked
+	static final int STATIC  = 2; // a range with constant bounds
+	static final int DYNAMIC = 3; // a range whose bounds are known at run time only
+
+	// per symbol, in the order of the declarations
+	public int[] range;         // constraint of the values (of the elements of an array)
+	public long[] lo, hi;       // bounds of range, if TYPE or STATIC
+	public int[] index;         // constraint of the index of an array, NONE if no array
+	public long[] first, last;  // bounds of index, if STATIC
+
+	SymTab syms = new SymTab(); // names of the unit, the scope of the procedure stays open after Run
+	private Ast ast;
+	private TokenTable tokens;
+	private Errors errors;
+	private char[] digits = new char[32]; // text of a numeric literal
+	private int at;                       // next character of digits
+
+	public Fold() {
+		value = new long[64]; constant = new boolean[64]; check = new boolean[64];
+		range = new int[16]; lo = new long[16]; hi = new long[16];
+		index = new int[16]; first = new long[16]; last = new long[16];
+	}
+
+	// fold the unit ast.root, whose tokens are in tokens; violations go to errors
+	public void Run(Ast ast, TokenTable tokens, Errors errors) {
+		this.ast = ast; this.tokens = tokens; this.errors = errors;
+		if (value.length < ast.count) {
+			int n = Math.max(2 * value.length, ast.count);
+			value = new long[n]; constant = new boolean[n]; check = new boolean[n];
+		} else {
+			Arrays.fill(constant, 0, ast.count, false);
+			Arrays.fill(check, 0, ast.count, false);
+		}
+		syms.Clear();
+		int root = ast.root, n = ast.childCount[root], c = 1;
+		Declare(ast.Child(root, 0));
+		syms.Push();
+		for (; c < n && ast.kind[ast.Child(root, c)] == Ast.DECL; c++) Decl(ast.Child(root, c));
+		for (; c < n - 1; c++) {
+			int s = ast.Child(root, c);
+			if (ast.kind[s] == Ast.ASSIGN) Assign(s);
+		}
+	}
+
+	// fold statement s, which was added to the tree of the unit that Run folded last
+	// (e.g. parsed again after an edit) and whose tokens are in tokens; the names
+	// are resolved against the declarations of that unit
+	public void Stmt(Ast ast, TokenTable tokens, Errors errors, int s) {
+		this.ast = ast; this.tokens = tokens; this.errors = errors;
+		if (value.length < ast.count) {
+			int n = Math.max(2 * value.length, ast.count);
+			value = Arrays.copyOf(value, n); constant = Arrays.copyOf(constant, n); check = Arrays.copyOf(check, n);
+		}
+		int lo = ast.Lowest(s);
+		Arrays.fill(constant, lo, s + 1, false);
+		Arrays.fill(check, lo, s + 1, false);
+		if (ast.kind[s] == Ast.ASSIGN) Assign(s);
+	}
+
+	//---------- declarations and statements ----------
+
+	private int Declare(int name) {
+		int s = syms.Declare(tokens, ast.tok[name]);
+		if (s >= range.length) {
+			int n = 2 * range.length;
+			range = Arrays.copyOf(range, n); lo = Arrays.copyOf(lo, n); hi = Arrays.copyOf(hi, n);
+			index = Arrays.copyOf(index, n); first = Arrays.copyOf(first, n); last = Arrays.copyOf(last, n);
+		}
+		return s;
+	}
+
+	// NAME {NAME} (TYPE | ARRAY) [RANGE] [expr]
+	private void Decl(int d) {
+		int n = ast.childCount[d], i = 0;
+		while (ast.kind[ast.Child(d, i)] == Ast.NAME) i++;
+		int names = i, type = ast.Child(d, i++), elem = type;
+		int ix = NONE, rx = NONE;
+		long f = 0, l = 0, a = 0, b = 0;
+		if (ast.kind[type] == Ast.ARRAY) {
+			int r = ast.Child(type, 0);
+			Range(r);
+			if (constant[r]) { ix = STATIC; f = Lo(r); l = Hi(r); } else ix = DYNAMIC;
+			do elem = ast.Child(elem, 1); while (ast.kind[elem] == Ast.ARRAY);
+		}
+		boolean integer = tokens.kind[ast.tok[elem]] == Parser._integer;
+		if (integer) { rx = TYPE; a = INT_FIRST; b = INT_LAST; }
+		if (i < n && ast.kind[ast.Child(d, i)] == Ast.RANGE) {
+			int r = ast.Child(d, i++);
+			Range(r);
+			if (!constant[r]) rx = DYNAMIC;
+			else {
+				rx = STATIC; a = Lo(r); b = Hi(r);
+				if (integer && a <= b && (a < INT_FIRST || b > INT_LAST)) {
+					Error(r, "range " + a + " .. " + b + " exceeds the range of Integer");
+				}
+			}
+		}
+		if (i < n) {
+			int e = ast.Child(d, i);
+			Expr(e);
+			check[d] = Within(e, rx, a, b, "value");
+		}
+		for (int k = 0; k < names; k++) {
+			int s = Declare(ast.Child(d, k));
+			if (s < 0) continue;
+			range[s] = rx; lo[s] = a; hi[s] = b;
+			index[s] = ix; first[s] = f; last[s] = l;
+		}
+	}
+
+	// (NAME | INDEXED) expr
+	private void Assign(int n) {
+		int target = ast.Child(n, 0), name = target;
+		if (ast.kind[target] == Ast.INDEXED) name = ast.Child(target, 0);
+		int s = syms.Lookup(tokens, ast.tok[name]);
+		if (ast.kind[target] == Ast.INDEXED) {
+			int x = ast.Child(target, 1);
+			Expr(x);
+			check[target] = s < 0 || Within(x, index[s], first[s], last[s], "index");
+		}
+		if (ast.childCount[n] > 1) {
+			int e = ast.Child(n, 1);
+			Expr(e);
+			check[n] = s < 0 || Within(e, range[s], lo[s], hi[s], "value");
+		}
+	}
+
+	// true if the value of e must be checked against constraint c at run time;
+	// a constant outside of the range lo .. hi is reported
+	private boolean Within(int e, int c, long lo, long hi, String what) {
+		if (c == NONE) return false;
+		if (c == DYNAMIC || !constant[e]) return c != TYPE;
+		if (value[e] < lo || value[e] > hi) Error(e, what + " " + value[e] + " is out of range " + lo + " .. " + hi);
+		return false;
+	}
+
+	//---------- expressions ----------
+
+	// a RANGE node is constant if both of its bounds are
+	private void Range(int r) {
+		Expr(ast.Child(r, 0)); Expr(ast.Child(r, 1));
+		constant[r] = constant[ast.Child(r, 0)] && constant[ast.Child(r, 1)];
+	}
+
+	private long Lo(int r) { return value[ast.Child(r, 0)]; }
+
+	private long Hi(int r) { return value[ast.Child(r, 1)]; }
+
+	private void Expr(int n) {
+		switch (ast.kind[n]) {
+			case Ast.NUMBER:
+				Number(n);
+				break;
+			case Ast.PARENS:
+				Expr(ast.Child(n, 0));
+				Set(n, ast.Child(n, 0));
+				break;
+			case Ast.BINARY:
+				int l = ast.Child(n, 0), r = ast.Child(n, 1);
+				Expr(l); Expr(r);
+				if (!constant[r] || !constant[l] && ast.kind[l] != Ast.EMPTY) break;
+				Binary(n, ast.kind[l] == Ast.EMPTY, value[l], value[r]);
+				break;
+			default:
+				for (int i = 0; i < ast.childCount[n]; i++) Expr(ast.Child(n, i));
+		}
+	}
+
+	private void Set(int n, int from) {
+		constant[n] = constant[from]; value[n] = value[from];
+	}
+
+	private void Binary(int n, boolean unary, long a, long b) {
+		int op = tokens.kind[ast.tok[n]];
+		try {
+			long v;
+			if (op == Parser._plus) v = unary ? b : Math.addExact(a, b);
+			else if (op == Parser._minus) v = unary ? Math.negateExact(b) : Math.subtractExact(a, b);
+			else if (op == Parser._mult) v = Math.multiplyExact(a, b);
+			else if (op == Parser._power) {
+				if (b < 0) { Error(n, "negative exponent " + b); return; }
+				v = Power(a, b);
+			} else return;
+			constant[n] = true; value[n] = v;
+		} catch (ArithmeticException e) {
+			Error(n, "constant expression overflows");
+		}
+	}
+
+	private static long Power(long a, long b) {
+		if (a == 0 || a == 1) return b == 0 ? 1 : a;
+		if (a == -1) return (b & 1) == 0 ? 1 : -1;
+		long v = 1;
+		for (; b > 0; b--) v = Math.multiplyExact(v, a); // overflows after at most 63 steps
+		return v;
+	}
+
+	// numeral ["." numeral | "#" numeral ["." numeral] "#"] ["E" ["+" | "-"] numeral],
+	// written as one numeral token (16#FF#, 1E5) or as several tokens (16 # 10 #, 1 E 5)
+	// that are taken together; literals with a point are real and are not folded
+	private void Number(int n) {
+		int len = 0;
+		for (int k = ast.from[n]; k <= ast.to[n]; k++) {
+			if (len + tokens.len[k] > digits.length) digits = Arrays.copyOf(digits, Math.max(2 * digits.length, len + tokens.len[k]));
+			tokens.GetChars(k, digits, len);
+			len += tokens.len[k];
+		}
+		try {
+			at = 0;
+			long v = Digits(n, len, 10), base = 10;
+			if (v < 0) return;
+			if (at < len && digits[at] == '.') return;
+			if (at < len && digits[at] == '#') {
+				base = v;
+				if (base < 2 || base > 16) { Error(n, "base " + base + " is not in 2 .. 16"); return; }
+				at++;
+				v = Digits(n, len, (int) base);
+				if (v < 0) return;
+				if (at < len && digits[at] == '.') return;
+				at++; // closing '#'
+			}
+			if (at < len && (digits[at] == 'E' || digits[at] == 'e')) {
+				at++;
+				boolean negative = at < len && digits[at] == '-';
+				if (at < len && (digits[at] == '-' || digits[at] == '+')) at++;
+				long e = Digits(n, len, 10);
+				if (e < 0) return;
+				if (negative && e > 0) { Error(n, "negative exponent in integer literal"); return; }
+				v = Math.multiplyExact(v, Power(base, e));
+			}
+			constant[n] = true; value[n] = v;
+		} catch (ArithmeticException e) {
+			Error(n, "numeric literal is too large");
+		}
+	}
+
+	// value in base of the digits of the literal of n from at on, which end at the next
+	// '#' or '.' if based (base != 10), at the next character that is no digit otherwise;
+	// -1 (after reporting it) if one of them is not allowed in base
+	private long Digits(int n, int len, int base) {
+		long v = 0;
+		for (; at < len; at++) {
+			char c = digits[at];
+			if (c == '_') continue;
+			if (base != 10 ? c == '#' || c == '.' : c < '0' || c > '9') break;
+			int d = Character.digit(c, 16);
+			if (d < 0 || d >= base) {
+				int tok = ast.from[n];
+				for (int i = tokens.len[tok]; i <= at; i += tokens.len[tok]) tok++; // the token of the digit
+				errors.SemErr(tokens.line[tok], tokens.col[tok], "digit " + c + " is not allowed in base " + base);
+				return -1;
+			}
+			v = Math.addExact(Math.multiplyExact(v, base), d);
+		}
+		return v;
+	}
+
+	private void Error(int n, String msg) {
+		int tok = ast.from[n] >= 0 ? ast.from[n] : ast.tok[n];
+		errors.SemErr(tokens.line[tok], tokens.col[tok], msg);
+	}
+}
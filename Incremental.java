@@ -0,0 +1,359 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------------
+// Incremental  -- keeps tokens and tree of a source up to date while it is edited
+//-----------------------------------------------------------------------------------
+// Source, tokens and statements are kept in gap buffers whose gaps follow the edits,
+// so an edit costs its own size and the distance to the one before, not the size
+// of the source. Tokens behind the gap count their positions, character positions
+// and lines back from EOF, and the nodes of a statement its tokens from its first
+// one: an edit before them changes neither. Scanning restarts two tokens before an
+// edit, on the source in memory, and stops as soon as a new token lines up with an
+// old one behind it. If the tokens that really changed lie within the statement
+// list, only the statements that contain them are parsed again, resolved against
+// the unchanged declarations, folded and spliced in. Everything else (and any edit
+// of a unit with errors) is parsed from scratch. Tokens and Tree put the pieces
+// together for a reader.
+class Incremental {
+	public int errors;           // number of errors in the source
+	public PrintStream errorStream = System.out; // error messages of full parses go here
+	public Fold fold = new Fold(); // constant values and range checks, by node of Tree
+
+	// statistics of the last edit
+	public int rescanned;        // number of tokens scanned
+	public int reparsed;         // number of list entries parsed, -1 for a full parse
+	public int moved;            // number of tokens moved across the gap
+
+	// source
+	private byte[] text;         // the source but text[gap .. gapEnd-1]
+	private int gap, gapEnd;
+	private int high;            // first non-ASCII byte, it decides the encoding (see Buffer.Utf8); -1 after a byte order mark
+	private Scanner scanner;     // of text
+
+	// tokens
+	private TokenTable head = new TokenTable(); // tokens before the gap
+	private TokenTable tail = new TokenTable(); // tokens behind it, EOF first; pos, charPos and line counted back from EOF
+	private int eofPos, eofChar, eofLine; // position, character position and line of EOF
+	private TokenTable fresh = new TokenTable(); // tokens scanned by an edit
+	private TokenTable region = new TokenTable(); // tokens of the statements parsed again
+
+	// tree
+	private Ast ast = new Ast(); // nodes of the full parse and of the statements parsed since
+	private SymTab syms = new SymTab(); // names of the full parse
+	private int root;            // UNIT node of the full parse, its children before the statements are kept
+	private int decls;           // number of those children
+	private int begin;           // index of the token begin
+	private int[] stmt = new int[64];  // statements, those before the gap first and those behind it at the end
+	private int[] first = new int[64]; // their first tokens, counted back from EOF behind the gap
+	private int heads, tails;    // number of statements before and behind the gap
+	private int[] added = new int[16]; // statements parsed by an edit
+	private int garbage;         // nodes in ast that are no longer part of the tree
+
+	// what Tokens and Tree return, put together again after an edit
+	private TokenTable tokens = new TokenTable();
+	private Ast tree = new Ast();
+	private boolean joined;
+
+	private static final PrintStream QUIET = new PrintStream(OutputStream.nullOutputStream());
+
+	public Incremental(byte[] src) {
+		text = Arrays.copyOf(src, src.length + 64);
+		gap = src.length; gapEnd = text.length;
+		ParseAll();
+	}
+
+	// the current source text
+	public byte[] Source() {
+		byte[] s = new byte[text.length - (gapEnd - gap)];
+		System.arraycopy(text, 0, s, 0, gap);
+		System.arraycopy(text, gapEnd, s, gap, text.length - gapEnd);
+		return s;
+	}
+
+	// replace len bytes at byte position pos by s, returns the number of errors
+	public int Edit(int pos, int len, byte[] s) {
+		if (pos < 0 || len < 0 || pos + len > text.length - (gapEnd - gap)) {
+			throw new FatalError("edit out of bounds, position: " + pos);
+		}
+		joined = false;
+		boolean decides = Decides(pos, len, s);
+		Replace(pos, len, s);
+		if (errors > 0 || garbage > ast.count / 2 || pos < 3 || decides) { // 3: byte order mark
+			ParseAll();
+			return errors;
+		}
+
+		//---------- rescan ----------
+		moved = 0;
+		while (head.count > 0 && head.pos[head.count - 1] >= pos) ToTail();
+		while (eofPos - tail.pos[tail.count - 1] < pos) ToHead(); // EOF stays behind the gap
+		if (head.count < 2) { ParseAll(); return errors; }
+		ToTail(); ToTail();
+		int r = head.count, count = r + tail.count, top = tail.count - 1;
+		int delta = s.length - len;
+		scanner.buffer.Text(text, gap, gapEnd);
+		scanner.Restart(eofPos - tail.pos[top], eofChar - tail.charPos[top], eofLine - tail.line[top], tail.col[top]);
+		fresh.Clear();
+		int behind = pos + s.length; // new tokens from here on lie behind the edit
+		int i, j = top; // j: old token in tail
+		for (;;) {
+			i = scanner.Scan(fresh);
+			int p = fresh.pos[i];
+			if (p >= behind) {
+				while (eofPos + delta - tail.pos[j] < p) j--; // never passes EOF
+				if (eofPos + delta - tail.pos[j] == p && tail.kind[j] == fresh.kind[i] && tail.len[j] == fresh.len[i]) break;
+			}
+		}
+		rescanned = i + 1;
+		// old tokens r .. r+removed-1 are replaced by new tokens r .. r+i-1, the old token
+		// r+removed is the new token r+i; the tokens from there on get their new columns
+		int removed = top - j;
+		int dChar = fresh.charPos[i] - (eofChar - tail.charPos[j]), dLine = fresh.line[i] - (eofLine - tail.line[j]);
+		int dCol = fresh.col[i] - tail.col[j];
+		for (int k = j, line = tail.line[j]; k >= 0 && tail.line[k] == line; k--) tail.col[k] += dCol;
+		eofPos += delta; eofChar += dChar; eofLine += dLine;
+
+		// old tokens x .. y-1 were replaced by new tokens x .. y-1+shift
+		int a = 0, b = removed + 1, c = i + 1; // old r+a .. r+b-1, new r+a .. r+c-1
+		while (a < b && a < c && fresh.SameAs(a, tail, top - a)) a++;
+		while (b > a && c > a && fresh.SameAs(c - 1, tail, top - (b - 1))) { b--; c--; }
+		int x = r + a, y = r + b, shift = i - removed;
+		reparsed = 0;
+		if (x == y && shift == 0) { // only positions changed
+			Splice(removed, i);
+			return errors;
+		}
+
+		//---------- reparse ----------
+		// changed declarations can change the meaning of any name, so only
+		// statements are parsed again on their own
+		if (x <= begin || y > count - 4) { ParseAll(); return errors; } // 4: end name ; EOF
+		while (heads > 0 && After(heads - 1, count) > x) StmtToTail(count);
+		while (tails > 0 && After(stmt.length - tails, count) <= x) StmtToHead(count);
+		int d = 0; // the first d statements behind the gap contain changed tokens
+		while (d < tails && First(stmt.length - tails + d, count) < (x < y ? y : x)) d++;
+		int start = x, stop = y;
+		if (d > 0) {
+			start = Math.min(start, First(stmt.length - tails, count));
+			stop = Math.max(stop, After(stmt.length - tails + d - 1, count));
+		}
+		stop += shift;
+
+		region.Clear();
+		for (int t = start; t <= stop; t++) { // and the token after them
+			if (t < r) region.AddFrom(head, t);
+			else if (t < r + i) region.AddFrom(fresh, t - r);
+			else FromTail(region, j - (t - r - i));
+		}
+		Parser parser = new Parser(scanner, new Workspace(region, ast, fold.syms, fold));
+		parser.out = null; parser.errors.errorStream = QUIET;
+		scanner.Restart(eofPos, eofChar, eofLine, tail.col[0]); // tokens past the region are EOF
+		ast.Release(0);
+		parser.Reset(0);
+		int n = 0;
+		while (parser.laIdx < stop - start && (parser.la.kind == Parser._ident || parser.la.kind == Parser._null)) {
+			parser.stmt();
+			if (n == added.length) added = Arrays.copyOf(added, 2 * n);
+			added[n++] = ast.count - 1; // the node of a statement is created last
+			parser.Expect(Parser._semicolon);
+		}
+		ast.Release(0);
+		reparsed = n;
+		for (int k = 0; k < n && parser.errors.count == 0; k++) fold.Stmt(ast, region, parser.errors, added[k]);
+		if (parser.errors.count > 0 || parser.laIdx != stop - start) {
+			ParseAll();
+			return errors;
+		}
+
+		//---------- splice ----------
+		Splice(removed, i);
+		for (int k = 0; k < d; k++) {
+			int e = stmt[stmt.length - tails];
+			garbage += e - ast.Lowest(e) + 1;
+			tails--;
+		}
+		for (int k = 0; k < n; k++) {
+			int e = added[k], f = ast.from[e];
+			Shift(ast, ast.Lowest(e), e, -f);
+			if (heads + tails == stmt.length) GrowStmts();
+			stmt[heads] = e; first[heads] = start + f; heads++;
+		}
+		return errors;
+	}
+
+	// the tokens of the source
+	public TokenTable Tokens() {
+		Join();
+		return tokens;
+	}
+
+	// the tree of the source, as Parser left it if there are errors
+	public Ast Tree() {
+		Join();
+		return errors > 0 ? ast : tree;
+	}
+
+	//---------- source ----------
+
+	// true if the edit can change the first non-ASCII byte
+	private boolean Decides(int pos, int len, byte[] s) {
+		if (high < 0 || pos > high + 3) return false; // 3: bytes of its sequence after it
+		if (pos + len > high) return true;
+		for (byte ch : s) if (ch < 0) return true;
+		high += s.length - len;
+		return false;
+	}
+
+	// move the gap to pos and replace the len bytes behind it by s
+	private void Replace(int pos, int len, byte[] s) {
+		if (pos < gap) System.arraycopy(text, pos, text, gapEnd - (gap - pos), gap - pos);
+		else System.arraycopy(text, gapEnd, text, gap, pos - gap);
+		gapEnd += pos - gap + len; gap = pos;
+		if (gapEnd - gap < s.length) {
+			int n = Math.max(2 * text.length, text.length + s.length), rest = text.length - gapEnd;
+			byte[] t = new byte[n];
+			System.arraycopy(text, 0, t, 0, gap);
+			System.arraycopy(text, gapEnd, t, n - rest, rest);
+			text = t; gapEnd = n - rest;
+		}
+		System.arraycopy(s, 0, text, gap, s.length);
+		gap += s.length;
+	}
+
+	private void ParseAll() {
+		joined = false;
+		scanner = new Scanner(text, gap, gapEnd);
+		Parser parser = new Parser(scanner, new Workspace(head, ast, syms, fold));
+		parser.out = null; parser.errors.errorStream = errorStream;
+		parser.Parse();
+		errors = parser.errors.count;
+		// the parser can stop before EOF or look at it twice, keep one
+		while (head.kind[head.count - 1] != Scanner.eofSym) scanner.Scan(head);
+		while (head.count > 1 && head.kind[head.count - 2] == Scanner.eofSym) head.Drop();
+		tail.Clear();
+		garbage = 0; heads = tails = 0;
+		rescanned = head.count; reparsed = -1; moved = 0;
+		int eof = head.count - 1;
+		eofPos = head.pos[eof]; eofChar = head.charPos[eof]; eofLine = head.line[eof];
+		byte[] s = Source();
+		high = s.length >= 3 && s[0] == (byte) 0xEF && s[1] == (byte) 0xBB && s[2] == (byte) 0xBF ? -1 : 0;
+		while (high >= 0 && high < s.length && s[high] >= 0) high++;
+		if (errors > 0) return;
+		// the statements count their tokens from their first one
+		root = ast.root;
+		int n = ast.childCount[root];
+		decls = 1;
+		while (decls < n && ast.kind[ast.Child(root, decls)] == Ast.DECL) decls++;
+		begin = decls > 1 ? ast.to[ast.Child(root, decls - 1)] + 2 : 3;
+		for (int c = decls; c < n - 1; c++) {
+			int e = ast.Child(root, c), f = ast.from[e];
+			Shift(ast, ast.Lowest(e), e, -f);
+			if (heads == stmt.length) GrowStmts();
+			stmt[heads] = e; first[heads] = f; heads++;
+		}
+	}
+
+	//---------- tokens ----------
+
+	// move the last token before the gap behind it
+	private void ToTail() {
+		int q = tail.AddFrom(head, head.count - 1);
+		tail.pos[q] = eofPos - tail.pos[q]; tail.charPos[q] = eofChar - tail.charPos[q]; tail.line[q] = eofLine - tail.line[q];
+		head.Drop();
+		moved++;
+	}
+
+	// move the first token behind the gap before it
+	private void ToHead() {
+		FromTail(head, tail.count - 1);
+		tail.Drop();
+		moved++;
+	}
+
+	// append token k of tail to t, with its position counted from the start
+	private void FromTail(TokenTable t, int k) {
+		int q = t.AddFrom(tail, k);
+		t.pos[q] = eofPos - t.pos[q]; t.charPos[q] = eofChar - t.charPos[q]; t.line[q] = eofLine - t.line[q];
+	}
+
+	// old tokens r .. r+removed-1, the first ones behind the gap, are replaced by
+	// the first n tokens of fresh, which go before it
+	private void Splice(int removed, int n) {
+		for (int k = 0; k < removed; k++) tail.Drop();
+		for (int k = 0; k < n; k++) head.AddFrom(fresh, k);
+	}
+
+	//---------- statements ----------
+
+	// first token of statement k (in stmt), count is the number of tokens
+	private int First(int k, int count) {
+		return k < heads ? first[k] : count - 1 - first[k];
+	}
+
+	// the token after the ';' that ends statement k
+	private int After(int k, int count) {
+		return First(k, count) + ast.to[stmt[k]] + 2;
+	}
+
+	private void StmtToTail(int count) {
+		heads--; tails++;
+		int k = stmt.length - tails;
+		stmt[k] = stmt[heads]; first[k] = count - 1 - first[heads];
+	}
+
+	private void StmtToHead(int count) {
+		int k = stmt.length - tails;
+		stmt[heads] = stmt[k]; first[heads] = count - 1 - first[k];
+		heads++; tails--;
+	}
+
+	private void GrowStmts() {
+		int n = 2 * stmt.length;
+		int[] s = Arrays.copyOf(stmt, n), f = Arrays.copyOf(first, n);
+		System.arraycopy(stmt, stmt.length - tails, s, n - tails, tails);
+		System.arraycopy(first, first.length - tails, f, n - tails, tails);
+		stmt = s; first = f;
+	}
+
+	// move the token indices of the nodes lo .. hi of t by shift
+	private static void Shift(Ast t, int lo, int hi, int shift) {
+		for (int k = lo; k <= hi; k++) {
+			if (t.tok[k] >= 0) t.tok[k] += shift;
+			if (t.from[k] >= 0) t.from[k] += shift;
+			if (t.to[k] >= 0) t.to[k] += shift;
+		}
+	}
+
+	//---------- for readers ----------
+
+	// put tokens and tree together
+	private void Join() {
+		if (joined) return;
+		joined = true;
+		tokens.Clear();
+		for (int i = 0; i < head.count; i++) tokens.AddFrom(head, i);
+		for (int i = tail.count - 1; i >= 0; i--) {
+			int q = tokens.AddFrom(tail, i);
+			tokens.pos[q] = eofPos - tokens.pos[q]; tokens.charPos[q] = eofChar - tokens.charPos[q]; tokens.line[q] = eofLine - tokens.line[q];
+		}
+		if (errors > 0) return;
+		int count = tokens.count;
+		tree.CopyFrom(ast);
+		for (int c = 0; c < decls; c++) tree.Reuse(ast.Child(root, c));
+		for (int k = 0; k < heads; k++) Place(k, count);
+		for (int k = stmt.length - tails; k < stmt.length; k++) Place(k, count);
+		int name = ast.Child(root, ast.childCount[root] - 1); // after end
+		tree.tok[name] = tree.from[name] = tree.to[name] = count - 3;
+		tree.Reuse(name);
+		tree.root = tree.Node(Ast.UNIT, ast.tok[root], 0, count - 2);
+	}
+
+	// statement k of the tree with token indices from the start
+	private void Place(int k, int count) {
+		int e = stmt[k];
+		Shift(tree, tree.Lowest(e), e, First(k, count));
+		tree.Reuse(e);
+	}
+}
@@ -0,0 +1,129 @@
+import java.io.IOException;
+
+//-----------------------------------------------------------------------------------
+// Interp  -- runs the three-address code of a unit
+//-----------------------------------------------------------------------------------
+// The code is resolved once by IrGen: names are virtual registers, constants are
+// folded and the needed range checks are explicit instructions. Running it is a
+// loop over the instruction arrays; every register is a slot of an int frame, an
+// array register a slot of the array frame. Integer is 32 bits wide, as in the
+// classes of CodeGen, and overflow is an error.
+class Interp {
+	public int[] frame;          // values of the scalar registers
+	public int[][] arrays;       // values of the array registers
+	public String failure;       // why the last run stopped, null if it completed
+	public int failedLine;       // source line of the failing instruction
+
+	// run the code in ir, returns false if it stopped with a run-time error
+	public boolean Run(Ir ir) {
+		int n = ir.regs;
+		if (frame == null || frame.length < n) { frame = new int[n]; arrays = new int[n][]; }
+		else for (int r = 0; r < n; r++) { frame[r] = 0; arrays[r] = null; }
+		failure = null; failedLine = 0;
+		int[] f = frame, op = ir.op, d = ir.d, a = ir.a, b = ir.b, c = ir.c;
+		long[] imm = ir.imm, imm2 = ir.imm2;
+		int[][] arr = arrays;
+		int i = 0, count = ir.count;
+		try {
+			for (; i < count; i++) {
+				switch (op[i]) {
+					case Ir.CONST: {
+						long v = imm[i];
+						if (v != (int) v) return Fail(ir, i, "value " + v + " does not fit into Integer");
+						f[d[i]] = (int) v;
+						break;
+					}
+					case Ir.MOVE:
+						f[d[i]] = f[a[i]];
+						break;
+					case Ir.ADD:
+						f[d[i]] = Math.addExact(f[a[i]], f[b[i]]);
+						break;
+					case Ir.SUB:
+						f[d[i]] = Math.subtractExact(f[a[i]], f[b[i]]);
+						break;
+					case Ir.MUL:
+						f[d[i]] = Math.multiplyExact(f[a[i]], f[b[i]]);
+						break;
+					case Ir.POW:
+						if (f[b[i]] < 0) return Fail(ir, i, "negative exponent");
+						f[d[i]] = Power(f[a[i]], f[b[i]]);
+						break;
+					case Ir.NEG:
+						f[d[i]] = Math.negateExact(f[a[i]]);
+						break;
+					case Ir.CHECK: {
+						int v = f[a[i]];
+						if (v < imm[i] || v > imm2[i]) return Fail(ir, i, "range check failed");
+						f[d[i]] = v;
+						break;
+					}
+					case Ir.CHECKR: {
+						int v = f[a[i]];
+						if (v < f[b[i]] || v > f[c[i]]) return Fail(ir, i, "range check failed");
+						f[d[i]] = v;
+						break;
+					}
+					case Ir.NEWARRAY:
+						arr[d[i]] = new int[Math.max(0, f[a[i]])];
+						break;
+					case Ir.STORE: {
+						int[] t = arr[a[i]];
+						int x = f[b[i]];
+						if (x < 0 || x >= t.length) return Fail(ir, i, "index out of range");
+						t[x] = f[c[i]];
+						break;
+					}
+					default:
+						throw new FatalError("unknown operation " + op[i]);
+				}
+			}
+		} catch (ArithmeticException e) {
+			return Fail(ir, i, "overflow");
+		} catch (OutOfMemoryError e) {
+			return Fail(ir, i, "array too large");
+		}
+		return true;
+	}
+
+	private boolean Fail(Ir ir, int i, String msg) {
+		failure = msg; failedLine = ir.line[i];
+		return false;
+	}
+
+	// a ** b for b >= 0 by squaring
+	private static int Power(int a, int b) {
+		int v = 1;
+		for (;;) {
+			if ((b & 1) != 0) v = Math.multiplyExact(v, a);
+			b >>= 1;
+			if (b == 0) return v;
+			a = Math.multiplyExact(a, a);
+		}
+	}
+
+	//---------- results ----------
+
+	// writes the values of the variables after a run, at most max elements per array
+	public void List(Appendable out, Ir ir, int max) {
+		StringBuilder s = new StringBuilder();
+		for (int r = 0; r < ir.regs; r++) {
+			if (ir.name[r] == null) continue;
+			s.append("\t").append(ir.name[r]).append(" = ");
+			int[] t = arrays[r];
+			if (t == null) s.append(frame[r]);
+			else {
+				s.append('(');
+				for (int i = 0; i < t.length && i < max; i++) s.append(i > 0 ? ", " : "").append(t[i]);
+				if (t.length > max) s.append(", ... ").append(t.length - max).append(" more");
+				s.append(')');
+			}
+			s.append('\n');
+		}
+		try {
+			out.append(s);
+		} catch (IOException e) {
+			throw new FatalError(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,225 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------------
+// Ir  -- three-address code of a unit and its register allocation
+//-----------------------------------------------------------------------------------
+// Every scalar variable, array and intermediate value is a virtual register; an
+// instruction reads at most three of them and writes at most one. The code of a
+// unit is straight-line, so the live range of a register is the interval from its
+// first definition to its last use. Allocate maps the intervals to a given number
+// of physical registers by linear scan; when they run out, the interval that ends
+// last is spilled to a stack slot.
+class Ir {
+	// operations; d is the register written, a, b, c the registers read
+	static final int CONST    =  1; // d = imm
+	static final int MOVE     =  2; // d = a
+	static final int ADD      =  3; // d = a + b
+	static final int SUB      =  4; // d = a - b
+	static final int MUL      =  5; // d = a * b
+	static final int POW      =  6; // d = a ** b
+	static final int NEG      =  7; // d = -a
+	static final int CHECK    =  8; // d = a, which must lie in imm .. imm2
+	static final int CHECKR   =  9; // d = a, which must lie in b .. c
+	static final int NEWARRAY = 10; // d = new array of max(0, a) elements
+	static final int STORE    = 11; // a[b] = c
+	static final String[] NAME = {"", "const", "move", "+", "-", "*", "**", "neg", "check", "check", "new", "store"};
+
+	private static final int MIN_LENGTH = 64;
+
+	// instructions
+	public int[] op, d, a, b, c;  // operation and registers, -1 if not used
+	public long[] imm, imm2;      // immediate operands
+	public int[] line;            // source line of the instruction
+	public int count;             // number of instructions
+
+	// virtual registers
+	public int regs;              // number of virtual registers
+	public int[] start, end;      // live interval: first definition .. last use
+	public int[] reg;             // physical register, -1 if spilled
+	public int[] slot;            // stack slot of a spilled register, -1 if none
+	public String[] name;         // variable held by the register, null for temporaries
+
+	// result of Allocate
+	public int physical;          // number of physical registers
+	public int spilled;           // number of spilled virtual registers
+	public int slots;             // number of stack slots used
+	public int spillLoads;        // uses of spilled registers, each needs a load
+	public int spillStores;       // definitions of spilled registers, each needs a store
+	public int pressure;          // maximum number of registers live at one instruction
+
+	public Ir() {
+		op = new int[MIN_LENGTH]; d = new int[MIN_LENGTH]; a = new int[MIN_LENGTH];
+		b = new int[MIN_LENGTH]; c = new int[MIN_LENGTH];
+		imm = new long[MIN_LENGTH]; imm2 = new long[MIN_LENGTH]; line = new int[MIN_LENGTH];
+		start = new int[MIN_LENGTH]; end = new int[MIN_LENGTH];
+		reg = new int[MIN_LENGTH]; slot = new int[MIN_LENGTH]; name = new String[MIN_LENGTH];
+	}
+
+	public void Clear() {
+		count = 0; regs = 0;
+	}
+
+	// a new virtual register holding the variable n (null for a temporary)
+	public int Reg(String n) {
+		if (regs == start.length) {
+			int len = 2 * regs;
+			start = Arrays.copyOf(start, len); end = Arrays.copyOf(end, len);
+			reg = Arrays.copyOf(reg, len); slot = Arrays.copyOf(slot, len); name = Arrays.copyOf(name, len);
+		}
+		name[regs] = n;
+		return regs++;
+	}
+
+	// append an instruction, returns its index
+	public int Emit(int o, int dst, int x, int y, int z, long i1, long i2, int l) {
+		if (count == op.length) Grow();
+		int i = count++;
+		op[i] = o; d[i] = dst; a[i] = x; b[i] = y; c[i] = z;
+		imm[i] = i1; imm2[i] = i2; line[i] = l;
+		return i;
+	}
+
+	private void Grow() {
+		int n = 2 * op.length;
+		op = Arrays.copyOf(op, n); d = Arrays.copyOf(d, n); a = Arrays.copyOf(a, n);
+		b = Arrays.copyOf(b, n); c = Arrays.copyOf(c, n);
+		imm = Arrays.copyOf(imm, n); imm2 = Arrays.copyOf(imm2, n); line = Arrays.copyOf(line, n);
+	}
+
+	//---------- liveness ----------
+
+	// compute the live interval of every register; a register that is never used
+	// is live at its definition only
+	public void Liveness() {
+		Arrays.fill(start, 0, regs, -1);
+		Arrays.fill(end, 0, regs, -1);
+		for (int i = 0; i < count; i++) {
+			Use(a[i], i); Use(b[i], i); Use(c[i], i);
+			int r = d[i];
+			if (r >= 0) {
+				if (start[r] < 0) start[r] = i;
+				if (end[r] < i) end[r] = i;
+			}
+		}
+	}
+
+	private void Use(int r, int i) {
+		if (r < 0) return;
+		if (start[r] < 0) start[r] = i; // used before it is defined, e.g. a parameter
+		end[r] = i;
+	}
+
+	//---------- linear scan ----------
+
+	// map the virtual registers to k physical registers, spilling where needed
+	public void Allocate(int k) {
+		if (k < 1) throw new FatalError("at least one register is needed");
+		Liveness();
+		physical = k; spilled = 0; slots = 0; spillLoads = 0; spillStores = 0; pressure = 0;
+		// registers by start of their interval (counting sort, starts are instruction indices)
+		int[] first = new int[count + 2], order = new int[regs];
+		for (int r = 0; r < regs; r++) first[start[r] + 2]++;
+		for (int i = 1; i < first.length; i++) first[i] += first[i - 1];
+		for (int r = 0; r < regs; r++) order[first[start[r] + 1]++] = r;
+		int[] active = new int[k + 1]; // sorted by end
+		int n = 0;
+		boolean[] free = new boolean[k];
+		Arrays.fill(free, true);
+		for (int i = 0; i < regs; i++) {
+			int r = order[i];
+			slot[r] = -1; reg[r] = -1;
+			if (start[r] < 0) continue; // never defined nor used
+			// expire the intervals that ended before r starts
+			int m = 0;
+			for (int j = 0; j < n; j++) {
+				if (end[active[j]] < start[r]) free[reg[active[j]]] = true;
+				else active[m++] = active[j];
+			}
+			n = m;
+			if (n == k) {
+				int last = active[n - 1];
+				if (end[last] > end[r]) { // r takes the register of the interval that ends last
+					reg[r] = reg[last]; reg[last] = -1;
+					Spill(last);
+					n--;
+				} else {
+					Spill(r);
+					continue;
+				}
+			} else {
+				int p = 0;
+				while (!free[p]) p++;
+				free[p] = false;
+				reg[r] = p;
+			}
+			int j = n++;
+			while (j > 0 && end[active[j - 1]] > end[r]) { active[j] = active[j - 1]; j--; }
+			active[j] = r;
+		}
+		Pressure();
+	}
+
+	private void Spill(int r) {
+		slot[r] = slots++;
+		spilled++;
+	}
+
+	// count the loads and stores that the spilled registers need and the maximum
+	// number of intervals that overlap one instruction
+	private void Pressure() {
+		int[] delta = new int[count + 1];
+		for (int r = 0; r < regs; r++) {
+			if (start[r] < 0) continue;
+			delta[start[r]]++; delta[end[r] + 1]--;
+		}
+		int live = 0;
+		for (int i = 0; i < count; i++) {
+			live += delta[i];
+			if (live > pressure) pressure = live;
+			if (a[i] >= 0 && reg[a[i]] < 0) spillLoads++;
+			if (b[i] >= 0 && reg[b[i]] < 0) spillLoads++;
+			if (c[i] >= 0 && reg[c[i]] < 0) spillLoads++;
+			if (d[i] >= 0 && reg[d[i]] < 0) spillStores++;
+		}
+	}
+
+	//---------- listing ----------
+
+	// writes the instructions with their physical registers ([n] for stack slot n)
+	public void List(Appendable out) {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			s.append(String.format("%4d  ", i));
+			int o = op[i];
+			if (o == STORE) {
+				Operand(s, a[i]); s.append('['); Operand(s, b[i]); s.append("] = "); Operand(s, c[i]);
+			} else {
+				Operand(s, d[i]); s.append(" = ");
+				switch (o) {
+					case CONST: s.append(imm[i]); break;
+					case MOVE: Operand(s, a[i]); break;
+					case NEG: s.append('-'); Operand(s, a[i]); break;
+					case NEWARRAY: s.append("new int["); Operand(s, a[i]); s.append(']'); break;
+					case CHECK: s.append("check "); Operand(s, a[i]); s.append(" in ").append(imm[i]).append(" .. ").append(imm2[i]); break;
+					case CHECKR: s.append("check "); Operand(s, a[i]); s.append(" in "); Operand(s, b[i]); s.append(" .. "); Operand(s, c[i]); break;
+					default: Operand(s, a[i]); s.append(' ').append(NAME[o]).append(' '); Operand(s, b[i]);
+				}
+			}
+			s.append('\n');
+		}
+		s.append(regs).append(" virtual registers, ").append(physical).append(" physical, pressure ").append(pressure);
+		s.append(", ").append(spilled).append(" spilled (").append(spillLoads).append(" loads, ");
+		s.append(spillStores).append(" stores)\n");
+		try {
+			out.append(s);
+		} catch (IOException e) {
+			throw new FatalError(e.getMessage());
+		}
+	}
+
+	private void Operand(StringBuilder s, int r) {
+		if (reg[r] >= 0) s.append('r').append(reg[r]); else s.append('[').append(slot[r]).append(']');
+		if (name[r] != null) s.append('(').append(name[r]).append(')');
+	}
+}
@@ -0,0 +1,192 @@
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------------
+// IrGen  -- translates a unit into three-address code
+//-----------------------------------------------------------------------------------
+// Each variable is one virtual register for the whole unit; every operation gets a
+// new register for its result, unless it is the last one of an assignment, which
+// writes the variable directly. Constants come from Fold, and so does the decision
+// which range checks are needed.
+class IrGen {
+	private Ast ast;
+	private TokenTable tokens;
+	private Fold fold;
+	private Errors errors;
+	private Ir ir;
+	private int line;                  // source line of the instructions being emitted
+
+	private int[] var = new int[16];   // symbol -> register of the variable (array)
+	private int[] lower = new int[16]; // symbol -> register with the lower index bound, -1 if static
+	private int[] range = new int[16]; // symbol -> first of two registers with the bounds of a dynamic range
+	private boolean failed;            // an unsupported construct was reported
+
+	// the code of the unit ast.root in ir, false if it cannot be translated (the
+	// reasons are reported to errors); fold must have run on the unit
+	public boolean Generate(Ast ast, TokenTable tokens, Fold fold, Errors errors, Ir ir) {
+		this.ast = ast; this.tokens = tokens; this.fold = fold; this.errors = errors; this.ir = ir;
+		ir.Clear();
+		failed = false;
+		int root = ast.root, n = ast.childCount[root], c = 1;
+		for (; c < n && ast.kind[ast.Child(root, c)] == Ast.DECL; c++) Decl(ast.Child(root, c));
+		for (; c < n - 1; c++) Stmt(ast.Child(root, c));
+		return !failed;
+	}
+
+	//---------- declarations and statements ----------
+
+	private void Decl(int d) {
+		line = tokens.line[ast.from[d]];
+		int n = ast.childCount[d], i = 0;
+		while (ast.kind[ast.Child(d, i)] == Ast.NAME) i++;
+		int names = i, type = ast.Child(d, i++), r = -1, init = -1;
+		if (i < n && ast.kind[ast.Child(d, i)] == Ast.RANGE) r = ast.Child(d, i++);
+		if (i < n) init = ast.Child(d, i);
+		int s0 = Symbol(ast.Child(d, 0)), elem = type, bounds = -1;
+		if (ast.kind[type] == Ast.ARRAY) {
+			elem = ast.Child(type, 1);
+			if (ast.kind[elem] == Ast.ARRAY) { Unsupported(elem, "arrays of arrays"); return; }
+			if (init >= 0) { Unsupported(init, "initial values of arrays"); return; }
+		}
+		int k = tokens.kind[ast.tok[elem]];
+		if (k != Parser._integer && k != Parser._boolean) { Unsupported(elem, tokens.Val(ast.tok[elem])); return; }
+		if (r >= 0 && fold.range[s0] == Fold.DYNAMIC) { // bounds are evaluated once
+			bounds = ir.Reg(null); ir.Reg(null);
+			Into(bounds, Expr(ast.Child(r, 0)));
+			Into(bounds + 1, Expr(ast.Child(r, 1)));
+		}
+		for (int j = 0; j < names; j++) {
+			int s = Symbol(ast.Child(d, j));
+			if (s < 0) continue;
+			Grow(s);
+			range[s] = bounds;
+			var[s] = ir.Reg(tokens.Val(ast.tok[ast.Child(d, j)]));
+			if (ast.kind[type] == Ast.ARRAY) {
+				int ir0 = ast.Child(type, 0), len;
+				lower[s] = -1;
+				if (fold.index[s] == Fold.STATIC) {
+					len = Const(Math.max(0, fold.last[s] - fold.first[s] + 1));
+				} else { // hi - lo + 1, which the array allocation checks
+					lower[s] = ir.Reg(null); // a copy: the bound may be a variable assigned later
+					Into(lower[s], Expr(ast.Child(ir0, 0)));
+					int hi = Expr(ast.Child(ir0, 1)), t = ir.Reg(null);
+					ir.Emit(Ir.SUB, t, hi, lower[s], -1, 0, 0, line);
+					len = ir.Reg(null);
+					ir.Emit(Ir.ADD, len, t, Const(1), -1, 0, 0, line);
+				}
+				ir.Emit(Ir.NEWARRAY, var[s], len, -1, -1, 0, 0, line);
+			} else {
+				int v = init >= 0 ? Expr(init) : Const(0);
+				if (init >= 0 && fold.check[d]) v = Check(s, v);
+				Into(var[s], v);
+			}
+		}
+	}
+
+	private void Stmt(int n) {
+		line = tokens.line[ast.from[n]];
+		if (ast.kind[n] != Ast.ASSIGN) return; // null
+		int target = ast.Child(n, 0), e = ast.Child(n, 1);
+		if (ast.kind[target] == Ast.INDEXED) {
+			int s = Symbol(ast.Child(target, 0));
+			if (s < 0) return;
+			if (fold.index[s] == Fold.NONE) { Unsupported(target, "indexing of a scalar"); return; }
+			int x = ast.Child(target, 1), i;
+			if (lower[s] < 0 && fold.constant[x]) i = Const(fold.value[x] - fold.first[s]);
+			else {
+				i = Expr(x);
+				int lo = lower[s] >= 0 ? lower[s] : fold.first[s] != 0 ? Const(fold.first[s]) : -1;
+				if (lo >= 0) {
+					int t = ir.Reg(null);
+					ir.Emit(Ir.SUB, t, i, lo, -1, 0, 0, line);
+					i = t;
+				}
+			}
+			int v = Expr(e);
+			if (fold.check[n]) v = Check(s, v);
+			ir.Emit(Ir.STORE, -1, var[s], i, v, 0, 0, line);
+		} else {
+			int s = Symbol(target);
+			if (s < 0) return;
+			if (fold.index[s] != Fold.NONE) { Unsupported(target, "assignment of whole arrays"); return; }
+			int v = Expr(e);
+			if (fold.check[n]) v = Check(s, v);
+			Into(var[s], v);
+		}
+	}
+
+	// v checked against the range of symbol s
+	private int Check(int s, int v) {
+		int t = ir.Reg(null);
+		if (range[s] >= 0) ir.Emit(Ir.CHECKR, t, v, range[s], range[s] + 1, 0, 0, line);
+		else ir.Emit(Ir.CHECK, t, v, -1, -1, fold.lo[s], fold.hi[s], line);
+		return t;
+	}
+
+	// make register r hold the value of register v; the instruction that just
+	// computed a temporary v writes r instead
+	private void Into(int r, int v) {
+		int last = ir.count - 1;
+		if (last >= 0 && ir.d[last] == v && ir.name[v] == null && v == ir.regs - 1) {
+			ir.d[last] = r;
+			ir.regs--; // v is not used anywhere else
+		} else ir.Emit(Ir.MOVE, r, v, -1, -1, 0, 0, line);
+	}
+
+	//---------- expressions ----------
+
+	// the register that holds the value of expression n
+	private int Expr(int n) {
+		if (fold.constant[n]) return Const(fold.value[n]);
+		switch (ast.kind[n]) {
+			case Ast.NAME: {
+				int s = Symbol(n);
+				if (s < 0) return Const(0);
+				if (fold.index[s] != Fold.NONE) { Unsupported(n, "arrays in expressions"); return Const(0); }
+				return var[s];
+			}
+			case Ast.PARENS:
+				return Expr(ast.Child(n, 0));
+			case Ast.BOOL:
+				return Const(tokens.kind[ast.tok[n]] == Parser._true ? 1 : 0);
+			case Ast.BINARY: {
+				int l = ast.Child(n, 0), r = ast.Child(n, 1), op = tokens.kind[ast.tok[n]];
+				boolean unary = ast.kind[l] == Ast.EMPTY;
+				if (ast.kind[r] == Ast.EMPTY) { Unsupported(n, "operator without right operand"); return Const(0); }
+				int x = unary ? -1 : Expr(l), y = Expr(r);
+				if (unary && op == Parser._plus) return y;
+				int t = ir.Reg(null);
+				if (unary) ir.Emit(Ir.NEG, t, y, -1, -1, 0, 0, line);
+				else {
+					int o = op == Parser._plus ? Ir.ADD : op == Parser._minus ? Ir.SUB : op == Parser._mult ? Ir.MUL : Ir.POW;
+					ir.Emit(o, t, x, y, -1, 0, 0, line);
+				}
+				return t;
+			}
+			default:
+				Unsupported(n, "this expression");
+				return Const(0);
+		}
+	}
+
+	private int Const(long v) {
+		int t = ir.Reg(null);
+		ir.Emit(Ir.CONST, t, -1, -1, -1, v, 0, line);
+		return t;
+	}
+
+	private int Symbol(int name) {
+		return fold.syms.Lookup(tokens, ast.tok[name]);
+	}
+
+	private void Grow(int s) {
+		if (s < var.length) return;
+		int n = Math.max(2 * var.length, s + 1);
+		var = Arrays.copyOf(var, n); lower = Arrays.copyOf(lower, n); range = Arrays.copyOf(range, n);
+	}
+
+	private void Unsupported(int n, String what) {
+		int tok = ast.from[n] >= 0 ? ast.from[n] : ast.tok[n];
+		errors.SemErr(tokens.line[tok], tokens.col[tok], what + " cannot be translated");
+		failed = true;
+	}
+}
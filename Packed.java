@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------------
+// Packed  -- numbers and characters in a compact binary form
+//-----------------------------------------------------------------------------------
+// Numbers are zigzag varints, so small values of either sign take one byte; columns
+// of growing numbers (positions, lines, node indices) are written as differences.
+// Put appends at len, Get reads from pos; a Get past len throws FatalError.
+class Packed {
+	public byte[] buf;  // the bytes
+	public int len;     // number of bytes in buf
+	public int pos;     // next byte to be read
+
+	public Packed(int capacity) {
+		buf = new byte[Math.max(capacity, 16)];
+	}
+
+	// the bytes b[0 .. n-1] for reading
+	public Packed(byte[] b, int n) {
+		buf = b; len = n;
+	}
+
+	public void PutInt(int v) {
+		if (len + 5 > buf.length) buf = Arrays.copyOf(buf, Math.max(2 * buf.length, len + 5));
+		int u = (v << 1) ^ (v >> 31);
+		while ((u & ~0x7F) != 0) {
+			buf[len++] = (byte) (u | 0x80);
+			u >>>= 7;
+		}
+		buf[len++] = (byte) u;
+	}
+
+	public int GetInt() {
+		int u = 0, shift = 0, b;
+		do {
+			if (pos >= len || shift > 28) throw new FatalError("damaged data");
+			b = buf[pos++];
+			u |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return (u >>> 1) ^ -(u & 1);
+	}
+
+	// a[0 .. n-1], as differences to the previous element if delta
+	public void PutInts(int[] a, int n, boolean delta) {
+		if (len + 5L * n > buf.length) buf = Arrays.copyOf(buf, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(2L * buf.length, len + 5L * n)));
+		byte[] b = buf;
+		int p = len, prev = 0;
+		for (int i = 0; i < n; i++) {
+			int v = a[i] - prev, u = (v << 1) ^ (v >> 31);
+			while ((u & ~0x7F) != 0) {
+				b[p++] = (byte) (u | 0x80);
+				u >>>= 7;
+			}
+			b[p++] = (byte) u;
+			if (delta) prev = a[i];
+		}
+		len = p;
+	}
+
+	public void GetInts(int[] a, int n, boolean delta) {
+		byte[] b = buf;
+		int p = pos, end = len, prev = 0;
+		for (int i = 0; i < n; i++) {
+			int u = 0, shift = 0, x;
+			do {
+				if (p >= end || shift > 28) throw new FatalError("damaged data");
+				x = b[p++];
+				u |= (x & 0x7F) << shift;
+				shift += 7;
+			} while (x < 0);
+			a[i] = ((u >>> 1) ^ -(u & 1)) + prev;
+			if (delta) prev = a[i];
+		}
+		pos = p;
+	}
+
+	public void PutChars(char[] a, int off, int n) {
+		for (int i = off; i < off + n; i++) PutInt(a[i]);
+	}
+
+	public void GetChars(char[] a, int off, int n) {
+		for (int i = off; i < off + n; i++) a[i] = (char) GetInt();
+	}
+
+	public void PutString(String s) {
+		PutInt(s.length());
+		for (int i = 0; i < s.length(); i++) PutInt(s.charAt(i));
+	}
+
+	public String GetString() {
+		int n = GetInt();
+		if (n < 0 || n > len - pos) throw new FatalError("damaged data");
+		char[] c = new char[n];
+		GetChars(c, 0, n);
+		return new String(c);
+	}
+}
@@ -0,0 +1,315 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+//-----------------------------------------------------------------------------------
+// ParseCache  -- parse results on disk, keyed by the content of the source
+//-----------------------------------------------------------------------------------
+// An entry holds the messages, tokens and tree of one source (Packed, then deflated)
+// and is named after the XXH64 hash of its bytes, which are hashed where the scanner
+// mapped them. A source that was parsed before is neither scanned nor parsed
+// again: its messages and listing are replayed from the entry. Entries are written
+// to a temporary file and renamed, so a reader never sees half of one, in this JVM
+// or another. Within a JVM, reading and renaming an entry hold one of STRIPES locks,
+// chosen by its hash, so units with other sources do not wait for each other. The
+// directory is kept below a size limit by removing the least recently used entries;
+// a hit touches the modification time of its entry. The size of the entries is
+// counted as they are written and the directory is only listed when the count
+// exceeds the limit; removing entries holds a lock on the file .lock in the
+// directory, which several JVMs can share.
+class ParseCache {
+	static final int VERSION = 2;               // of the entries, change when tokens, tree or messages do
+	private static final int MAGIC = 0x41425043; // "ABPC"
+	private static final String SUFFIX = ".apc";
+	private static final int HEADER = 24;       // magic, version, hash, source length, unpacked length
+	private static final long STALE = 3600000;  // temporary files older than this (ms) were left by a crash
+	private static final int STRIPES = 64;      // locks for reading and renaming entries, a power of 2
+
+	public final File dir;          // the entries
+	public final long limit;        // maximum size of all entries in bytes
+	public int hits, misses;        // number of units replayed from and added to the cache
+
+	private final Path lockFile;
+	private final Object[] stripes = new Object[STRIPES]; // entry with hash h: stripes[h & STRIPES-1]
+	private final AtomicLong used = new AtomicLong(); // bytes in entries, as far as this JVM has seen them
+	private static final Object EVICT = new Object(); // file locks are held by the JVM, not by a thread
+
+	public ParseCache(String dir, long limit) {
+		this.dir = new File(dir);
+		this.limit = limit;
+		if (!this.dir.isDirectory() && !this.dir.mkdirs()) throw new FatalError("Cannot create cache directory " + dir);
+		lockFile = this.dir.toPath().resolve(".lock");
+		for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+		used.set(Evict(Long.MAX_VALUE));
+	}
+
+	// the cache named by the system properties adababy.cache (directory) and
+	// adababy.cache.size (limit in MB, default 256), null if there is none
+	public static ParseCache Default() {
+		String dir = System.getProperty("adababy.cache");
+		if (dir == null || dir.isEmpty()) return null;
+		return new ParseCache(dir, Long.getLong("adababy.cache.size", 256) << 20);
+	}
+
+	// a parser that has parsed file (see Parser.Parse); the listing goes to out (none if
+	// null) and the messages to errorStream. On a hit scanner is null and the messages,
+	// listing, tokens and tree come from the cache; Fold runs again, as Parse would.
+	// On a miss the scanner is pipelined or scans on parallel threads (if > 0)
+	public Parser Parse(String file, Appendable out, PrintStream errorStream, boolean pipelined, int parallel) {
+		Scanner scanner = new Scanner(file);
+		MappedByteBuffer[] mapped = scanner.buffer.Mapped();
+		long hash;
+		int length;
+		if (mapped != null) {
+			length = scanner.buffer.MappedLength();
+			hash = Hash(mapped, length);
+		} else { // e.g. a pipe
+			byte[] src;
+			try {
+				src = Files.readAllBytes(new File(file).toPath());
+			} catch (IOException e) {
+				throw new FatalError("Cannot open file " + file);
+			}
+			length = src.length;
+			hash = Hash(src);
+		}
+		Path entry = dir.toPath().resolve(String.format("%016x", hash) + SUFFIX);
+		Workspace w = new Workspace(); // filled by the entry or, if there is none, by the parse
+		Parser parser = new Parser(null, w);
+		parser.out = out;
+		parser.errors.errorStream = errorStream;
+		if (Get(entry, hash, length, parser)) {
+			synchronized (this) { hits++; }
+			return parser;
+		}
+		if (parallel > 0) scanner.Parallel(parallel);
+		if (pipelined) scanner.Pipeline();
+		parser = new Parser(scanner, w);
+		Recorder errors = new Recorder();
+		errors.errorStream = errorStream;
+		parser.errors = errors;
+		parser.out = out;
+		parser.Parse();
+		Put(entry, hash, length, parser, errors);
+		synchronized (this) { misses++; }
+		return parser;
+	}
+
+	//---------- entries ----------
+
+	// the messages of a unit in the order they were reported
+	static class Recorder extends Errors {
+		ArrayList<Object[]> messages = new ArrayList<Object[]>(); // line, column (-1 if none), text
+
+		protected void printMsg(int line, int column, String msg) {
+			messages.add(new Object[] {line, column, msg});
+			super.printMsg(line, column, msg);
+		}
+
+		public void SemErr(String s) {
+			messages.add(new Object[] {-1, -1, s});
+			super.SemErr(s);
+		}
+
+		public void Warning(String s) {
+			messages.add(new Object[] {-1, -1, s});
+			super.Warning(s);
+		}
+	}
+
+	// fill parser from the entry of the source with hash and length, false if there is none
+	private boolean Get(Path entry, long hash, int length, Parser parser) {
+		byte[] data;
+		synchronized (Stripe(hash)) {
+			try {
+				if (!Files.exists(entry)) return false;
+				data = Files.readAllBytes(entry);
+				entry.toFile().setLastModified(System.currentTimeMillis());
+			} catch (IOException e) {
+				return false; // e.g. removed by another JVM
+			}
+		}
+		ByteBuffer b = ByteBuffer.wrap(data);
+		if (data.length < HEADER || b.getInt() != MAGIC || b.getInt() != VERSION || b.getLong() != hash || b.getInt() != length) return false;
+		int raw = b.getInt();
+		Packed in;
+		Inflater inflater = new Inflater();
+		try {
+			if (raw < 0) return false;
+			in = new Packed(new byte[raw], raw);
+			inflater.setInput(data, HEADER, data.length - HEADER);
+			if (inflater.inflate(in.buf) != raw || !inflater.finished()) return false;
+		} catch (DataFormatException e) {
+			return false; // damaged, Put replaces it
+		} finally {
+			inflater.end();
+		}
+		// all of the entry is decoded before its messages are replayed: a damaged one
+		// is parsed again, which reports them once more
+		int count;
+		ArrayList<Object[]> messages = new ArrayList<Object[]>();
+		try {
+			count = in.GetInt();
+			int n = in.GetInt();
+			for (int i = 0; i < n; i++) {
+				int line = in.GetInt(), col = in.GetInt();
+				messages.add(new Object[] {line, col, in.GetString()});
+			}
+			parser.tokens.Read(in);
+			parser.ast.Read(in);
+		} catch (FatalError e) {
+			return false;
+		}
+		for (Object[] m : messages) {
+			if ((Integer) m[0] < 0) parser.errors.errorStream.println((String) m[2]);
+			else parser.errors.printMsg((Integer) m[0], (Integer) m[1], (String) m[2]);
+		}
+		parser.errors.count = count;
+		if (parser.errors.count == 0) parser.fold.Run(parser.ast, parser.tokens, parser.errors);
+		if (parser.out != null) parser.ast.List(parser.out, parser.tokens);
+		return true;
+	}
+
+	@SuppressWarnings("try") // the lock is only held, never used in the block
+	private void Put(Path entry, long hash, int length, Parser parser, Recorder errors) {
+		Packed out = new Packed(length);
+		out.PutInt(errors.count);
+		out.PutInt(errors.messages.size());
+		for (Object[] m : errors.messages) {
+			out.PutInt((Integer) m[0]); out.PutInt((Integer) m[1]); out.PutString((String) m[2]);
+		}
+		parser.tokens.Write(out);
+		parser.ast.Write(out);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] data = new byte[HEADER + out.len / 2 + 64];
+		int n = HEADER;
+		deflater.setInput(out.buf, 0, out.len);
+		deflater.finish();
+		while (!deflater.finished()) {
+			if (n == data.length) data = Arrays.copyOf(data, 2 * data.length);
+			n += deflater.deflate(data, n, data.length - n);
+		}
+		deflater.end();
+		ByteBuffer.wrap(data).putInt(MAGIC).putInt(VERSION).putLong(hash).putInt(length).putInt(out.len);
+		Path tmp = null;
+		try {
+			tmp = Files.createTempFile(dir.toPath(), "entry", ".tmp");
+			Files.write(tmp, Arrays.copyOf(data, n));
+			long replaced;
+			synchronized (Stripe(hash)) {
+				replaced = Files.exists(entry) ? Files.size(entry) : 0;
+				Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				tmp = null;
+			}
+			if (used.addAndGet(n - replaced) > limit) {
+				synchronized (EVICT) {
+					try (FileChannel ch = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+							FileLock lock = ch.lock()) {
+						if (used.get() > limit) used.set(Evict(limit));
+					}
+				}
+			}
+		} catch (IOException e) {
+			// the cache is an optimization, the unit was parsed anyway
+		} finally {
+			if (tmp != null) tmp.toFile().delete();
+		}
+	}
+
+	private Object Stripe(long hash) {
+		return stripes[(int) hash & (STRIPES - 1)];
+	}
+
+	// remove the least recently used entries until the rest fits into max, returns
+	// the size of the rest; it includes the entries that other JVMs have written
+	private long Evict(long max) {
+		File[] files = dir.listFiles();
+		if (files == null) return 0;
+		long now = System.currentTimeMillis(), size = 0;
+		int n = 0;
+		long[] time = new long[files.length];
+		for (File f : files) {
+			String name = f.getName();
+			if (name.endsWith(".tmp") && f.lastModified() < now - STALE) f.delete();
+			if (!name.endsWith(SUFFIX)) continue;
+			size += f.length();
+			files[n] = f; time[n++] = f.lastModified();
+		}
+		if (size <= max) return size;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) order[i] = i;
+		Arrays.sort(order, (a, b) -> Long.compare(time[a], time[b]));
+		for (int i = 0; i < n && size > max; i++) {
+			File f = files[order[i]];
+			long len = f.length();
+			if (f.delete()) size -= len;
+		}
+		return size;
+	}
+
+	//---------- XXH64 ----------
+
+	private static final long P1 = 0x9E3779B185EBCA87L, P2 = 0xC2B2AE3D27D4EB4FL, P3 = 0x165667B19E3779F9L;
+	private static final long P4 = 0x85EBCA77C2B2AE63L, P5 = 0x27D4EB2F165667C5L;
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	// XXH64 of b with seed 0
+	static long Hash(byte[] b) {
+		return Hash(new ByteBuffer[] {ByteBuffer.wrap(b)}, b.length);
+	}
+
+	// XXH64 with seed 0 of the n bytes in parts (absolute gets), each of which but
+	// the last holds a multiple of 32 bytes, so no stripe of 32 is split
+	static long Hash(ByteBuffer[] parts, long n) {
+		ByteBuffer b = parts[0];
+		int p = 0, i = 0; // i: position in b = parts[p]
+		long h, rest = n;
+		if (n >= 32) {
+			long v1 = P1 + P2, v2 = P2, v3 = 0, v4 = -P1;
+			for (; rest >= 32; rest -= 32, i += 32) {
+				if (i == b.limit()) { b = parts[++p]; i = 0; }
+				v1 = Round(v1, (long) LONGS.get(b, i));
+				v2 = Round(v2, (long) LONGS.get(b, i + 8));
+				v3 = Round(v3, (long) LONGS.get(b, i + 16));
+				v4 = Round(v4, (long) LONGS.get(b, i + 24));
+			}
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = Merge(h, v1); h = Merge(h, v2); h = Merge(h, v3); h = Merge(h, v4);
+		} else h = P5;
+		h += n;
+		if (rest > 0 && i == b.limit()) { b = parts[++p]; i = 0; }
+		int end = i + (int) rest;
+		for (; i <= end - 8; i += 8) h = Long.rotateLeft(h ^ Round(0, (long) LONGS.get(b, i)), 27) * P1 + P4;
+		if (i <= end - 4) { h = Long.rotateLeft(h ^ ((int) INTS.get(b, i) & 0xFFFFFFFFL) * P1, 23) * P2 + P3; i += 4; }
+		for (; i < end; i++) h = Long.rotateLeft(h ^ (b.get(i) & 0xFFL) * P5, 11) * P1;
+		h ^= h >>> 33; h *= P2;
+		h ^= h >>> 29; h *= P3;
+		return h ^ (h >>> 32);
+	}
+
+	private static long Round(long acc, long v) {
+		return Long.rotateLeft(acc + v * P2, 31) * P1;
+	}
+
+	private static long Merge(long h, long v) {
+		return (h ^ Round(0, v)) * P1 + P4;
+	}
+}
@@ -46,6 +46,9 @@ public class Parser {
 	public static final int _rbrack = 42;
 	public static final int _rpar = 43;
 	public static final int _tilde = 44;
+	public static final int _power = 45;
+	public static final int _true = 46;
+	public static final int _false = 47;
 	public static final int maxT = 53;
 
 	static final boolean _T = true;
@@ -58,23 +61,57 @@ public class Parser {
 	
 	public Scanner scanner;
 	public Errors errors;
+	Stats stats;       // counters of the unit, null unless Stats.ON
 
-	Token peek(int n) {
-  scanner.ResetPeek();
-  Token x = la;
-  while (n > 0) { x = scanner.Peek(); n--; }
-  return x;
+	public TokenTable tokens; // all tokens scanned so far
+	int tIdx, laIdx;   // indices of t and la in tokens
+	int nextIdx;       // index of the next token to be scanned in tokens
+	Token view0, view1; // t and la, reused for every token
+
+	// names of the token kinds 0 .. maxT as written in the grammar (literals in quotes),
+	// ScanTable fills them in (see TokenNames there)
+	static final String[] tokenNames = {
+		"EOF", "ident", "numeral", "floatLit", "charLit", "stringLit", "subtype", "record",
+		"range", "is", "loop", "while", "for", "begin", "end", "procedure",
+		"function", "package", "use", "with", "of", "array", "integer", "string",
+		"boolean", "float", "null", "char", "colon", "semicolon", "comma", "dot",
+		"self", "lbrace", "lbrack", "lpar", "mult", "and", "not", "minus",
+		"plus", "rbrace", "rbrack", "rpar", "tilde", "power", "true", "false",
+		"\":=\"", "\"'\"", "\"..\"", "\"e\"", "\"#\"", "???",
+	};
+
+	Appendable out = System.out; // the listing is written here, null for none
+Ast ast; // syntax tree of the unit
+SymTab syms; // names declared in the unit
+Fold fold; // constant values and range checks of the unit
+
+// leaf for the last recognized token
+void Leaf(int kind) { ast.Leaf(kind, tIdx); }
+
+// node for token tok whose children are the nodes created since mark
+int Node(int kind, int tok, int mark) { return ast.Node(kind, tok, mark, tIdx); }
+
+// declare the last recognized identifier (if there is one) in the current scope
+void Declare() {
+  if (t.kind == _ident && syms.Declare(tokens, tIdx) < 0) NameErr(Val() + " is already declared");
 }
 
-Object getKind(int t)
-{
-java.util.Set<java.util.Map.Entry> entries = Scanner.literals.entrySet();
-for(java.util.Map.Entry entry : entries) {
-   if(entry.getValue().equals(t)) {
-       return entry.getKey();
-   }
+// the last recognized identifier (if there is one) must be declared
+void Use() {
+  if (t.kind == _ident && syms.Lookup(tokens, tIdx) < 0) NameErr(Val() + " is not declared");
 }
-return null;
+
+// like SemErr, but the name was parsed without a syntax error, so the errors
+// after it are reported as well
+void NameErr(String msg) {
+  if (errDist >= minErrDist) errors.SemErr(t.line, t.col, msg);
+}
+
+// Return the n-th token after the current lookahead token
+Token peek(int n) {
+  Token x = new Token();
+  tokens.Load(PeekIndex(n), x);
+  return x;
 }
 
 class ExprKind {
@@ -103,8 +140,16 @@ class ExprKind {
 
 
 	public Parser(Scanner scanner) {
+		this(scanner, new Workspace());
+	}
+
+	// tokens, tree, names and fold of the unit go to the objects of w
+	public Parser(Scanner scanner, Workspace w) {
 		this.scanner = scanner;
+		tokens = w.tokens; ast = w.ast; syms = w.syms; fold = w.fold;
 		errors = new Errors();
+		view0 = new Token(); view1 = new Token();
+		if (Stats.ON) stats = scanner != null ? scanner.stats : new Stats("-");
 	}
 
 	void SynErr (int n) {
@@ -118,16 +163,59 @@ class ExprKind {
 	}
 	
 	void Get () {
+		if (Stats.ON) stats.gets++;
 		for (;;) {
-			t = la;
-			la = scanner.Scan();
+			t = la; tIdx = laIdx;
+			la = ScanIndexed();
 			if (la.kind <= maxT) {
 				++errDist;
 				break;
 			}
 
-			la = t;
+			la = t; laIdx = tIdx;
+		}
+	}
+
+	// load the next token into the view that is not t
+	Token ScanIndexed () {
+		if (nextIdx == tokens.count) ScanToken();
+		laIdx = nextIdx++;
+		Token x = t == view0 ? view1 : view0;
+		tokens.Load(laIdx, x);
+		return x;
+	}
+
+	// scan one more token into tokens
+	void ScanToken () {
+		if (Stats.ON) {
+			long t0 = System.nanoTime();
+			scanner.Scan(tokens);
+			stats.scan += System.nanoTime() - t0;
+		} else scanner.Scan(tokens);
+	}
+
+	// continue parsing at token i of tokens, which were scanned before
+	void Reset (int i) {
+		nextIdx = i; laIdx = i - 1;
+		t = la = view0;
+		errDist = minErrDist;
+		Get();
+	}
+
+	// index of the n-th token after la, scanning ahead if needed
+	int PeekIndex (int n) {
+		int i = laIdx;
+		while (n > 0) {
+			i++;
+			if (i == tokens.count) ScanToken();
+			if (tokens.kind[i] <= maxT) n--; // skip pragmas
 		}
+		return i;
+	}
+
+	// value of t, materialized only here
+	String Val () {
+		return tIdx < 0 ? "" : tokens.Val(tIdx);
 	}
 	
 	void Expect (int n) {
@@ -135,14 +223,17 @@ class ExprKind {
 	}
 	
 	boolean StartOf (int s) {
-		return set[s][la.kind];
+		return In(set[s], la.kind);
 	}
 	
 	void ExpectWeak (int n, int follow) {
 		if (la.kind == n) Get();
 		else {
 			SynErr(n);
-			while (!StartOf(follow)) Get();
+			while (!StartOf(follow)) {
+				if (Stats.ON) stats.skipped++;
+				Get();
+			}
 		}
 	}
 	
@@ -152,7 +243,9 @@ class ExprKind {
 		else if (StartOf(repFol)) return false;
 		else {
 			SynErr(n);
-			while (!(set[syFol][kind] || set[repFol][kind] || set[0][kind])) {
+			long[] stop = Union(set[syFol], set[repFol], set[0]);
+			while (!In(stop, kind)) {
+				if (Stats.ON) stats.skipped++;
 				Get();
 				kind = la.kind;
 			}
@@ -161,65 +254,62 @@ class ExprKind {
 	}
 	
 	void ada() {
-		System.out.println("ADASTART"); 
+		ast.Clear(); syms.Clear(); int p = laIdx; 
 		pdecl();
-		System.out.println("Declarations:"); 
 		while (la.kind == 1) {
 			decl();
 			Expect(29);
-			System.out.print(t.val + "\n"); 
 		}
 		Expect(13);
-		System.out.print("\t" + t.val + "\n"); 
-		System.out.println("Statements:"); 
 		while (la.kind == 1 || la.kind == 26) {
 			stmt();
 			Expect(29);
-			System.out.print(t.val + "\n"); 
 		}
 		pend();
 		Expect(29);
-		System.out.print(t.val + "\n"); 
-		System.out.println("ADASTOP"); 
+		ast.root = Node(Ast.UNIT, p, 0);
+		long t0 = Stats.Now();
+		if (errors.count == 0) fold.Run(ast, tokens, errors);
+		long t1 = Stats.Now();
+		if (Stats.ON) stats.fold += t1 - t0; 
+		if (out != null) ast.List(out, tokens);
+		if (Stats.ON) stats.list += Stats.Now() - t1; 
 	}
 
 	void pdecl() {
 		Expect(15);
-		System.out.print("\t" + t.val + " "); 
 		Expect(1);
-		System.out.print(t.val + " "); 
+		Leaf(Ast.NAME); Declare(); 
 		Expect(9);
-		System.out.print(t.val + "\n"); 
+		syms.Push(); 
 	}
 
 	void decl() {
+		int m = ast.Mark(), d; 
 		Expect(1);
-		System.out.print("\t" + t.val); 
+		d = tIdx; Leaf(Ast.NAME); Declare(); 
 		while (la.kind == 30) {
 			Get();
-			System.out.print(t.val + " "); 
 			Expect(1);
-			System.out.print(t.val); 
+			Leaf(Ast.NAME); Declare(); 
 		}
 		Expect(28);
-		System.out.print(t.val + " "); 
 		type();
-		System.out.print(t.val); 
 		if (la.kind == 8) {
 			Get();
-			System.out.print(" " + t.val + " "); 
 			range_decl();
 		}
-		if (la.kind == 45) {
+		if (la.kind == 48) {
 			Get();
-			System.out.print(" " + t.val + " "); 
 			Expr();
 		}
+		Node(Ast.DECL, d, m); 
 	}
 
 	void stmt() {
 		if (la.kind == 26) {
 			Get();
+			Leaf(Ast.NULL); 
 		} else if (la.kind == 1) {
 			assign();
 		} else SynErr(54);
@@ -227,82 +317,77 @@ class ExprKind {
 
 	void pend() {
 		Expect(14);
-		System.out.print("\t" + t.val + " "); 
+		syms.Pop(); 
 		Expect(1);
-		System.out.print(t.val); 
+		Leaf(Ast.NAME); Use(); 
 	}
 
 	void type() {
-		switch (la.kind) {
-		case 22: {
-			Get();
-			break;
-		}
-		case 23: {
-			Get();
-			break;
-		}
-		case 24: {
-			Get();
-			break;
-		}
-		case 25: {
-			Get();
-			break;
-		}
-		case 27: {
-			Get();
-			break;
-		}
-		case 21: {
+		if (StartOf(1)) {
+			if (la.kind == 22) {
+				Get();
+			} else if (la.kind == 23) {
+				Get();
+			} else if (la.kind == 24) {
+				Get();
+			} else if (la.kind == 25) {
+				Get();
+			} else {
+				Get();
+			}
+			Leaf(Ast.TYPE); 
+		} else if (la.kind == 21) {
 			array_type_def();
-			break;
-		}
-		default: SynErr(55); break;
-		}
+		} else SynErr(55);
 	}
 
 	void range_decl() {
+		int m = ast.Mark(), r; 
 		Expr();
-		Expect(47);
-		System.out.print(" " + t.val + " "); 
+		Expect(50);
+		r = tIdx; 
 		Expr();
+		Node(Ast.RANGE, r, m); 
 	}
 
 	void Expr() {
+		int m = ast.Mark(), op; 
 		Term();
 		while (la.kind == 39 || la.kind == 40) {
 			AddOp();
+			op = tIdx; 
 			Term();
+			Node(Ast.BINARY, op, m); 
 		}
 	}
 
 	void array_type_def() {
+		int m = ast.Mark(), a; 
 		Expect(21);
-		System.out.print(t.val); 
+		a = tIdx; 
 		Expect(35);
-		System.out.print(" " + t.val + " "); 
 		range_decl();
 		Expect(43);
-		System.out.print(" " + t.val + " "); 
 		Expect(20);
-		System.out.print(t.val + " "); 
 		type();
+		Node(Ast.ARRAY, a, m); 
 	}
 
 	void assign() {
+		int m = ast.Mark(), i, a; 
 		Expect(1);
-		System.out.print("\t" + t.val); 
+		Leaf(Ast.NAME); Use(); 
 		if (la.kind == 35) {
 			Get();
-			System.out.print(t.val); 
+			i = tIdx; 
 			Expr();
 			Expect(43);
-			System.out.print(t.val); 
+			Node(Ast.INDEXED, i, m); 
 		}
-		Expect(45);
-		System.out.print(" " + t.val + " "); 
+		Expect(48);
+		a = tIdx; 
 		Expr();
+		Node(Ast.ASSIGN, a, m); 
 	}
 
 	void prefix() {
@@ -311,13 +396,12 @@ class ExprKind {
 
 	void name() {
 		Expect(1);
+		Leaf(Ast.NAME); Use(); 
 	}
 
 	void range_attribute_reference() {
 		prefix();
-		System.out.print(" " + t.val + " "); 
-		Expect(46);
-		System.out.print(" " + t.val + " "); 
+		Expect(49);
 		range_attribute_designator();
 	}
 
@@ -325,29 +409,33 @@ class ExprKind {
 		Expect(8);
 		if (la.kind == 35) {
 			Get();
-			System.out.print(" " + t.val + " "); 
 			Expr();
 			Expect(43);
 		}
-		System.out.print(" " + t.val + " "); 
 	}
 
 	void Primary() {
+		int m = ast.Mark(), p; 
 		if (la.kind == 2) {
 			numeric_literal();
 		} else if (la.kind == 26) {
 			Get();
+			Leaf(Ast.NULL); 
 		} else if (la.kind == 1) {
 			name();
 		} else if (la.kind == 35) {
 			Get();
+			p = tIdx; 
 			Expr();
 			Expect(43);
+			Node(Ast.PARENS, p, m); 
 		} else SynErr(56);
 	}
 
 	void numeric_literal() {
+		int m = ast.Mark(), n; 
 		Expect(2);
+		n = tIdx; 
 		if (la.kind == 31 || la.kind == 52) {
 			if (la.kind == 31) {
 				decimal_literal();
@@ -358,14 +446,17 @@ class ExprKind {
 		if (la.kind == 51) {
 			exponent();
 		}
+		Node(Ast.NUMBER, n, m); 
 	}
 
 	void Term() {
+		int m = ast.Mark(), op; 
 		Factor();
-		System.out.print(t.val); 
 		while (la.kind == 36) {
 			MulOp();
+			op = tIdx; 
 			Factor();
+			Node(Ast.BINARY, op, m); 
 		}
 	}
 
@@ -375,27 +466,31 @@ class ExprKind {
 		} else if (la.kind == 39) {
 			Get();
 		} else SynErr(57);
-		System.out.print(" " + t.val + " "); 
 	}
 
 	void Factor() {
-		if (StartOf(1)) {
-		} else if (StartOf(2)) {
+		int m = ast.Mark(), op; 
+		if (StartOf(2)) {
+			ast.Leaf(Ast.EMPTY, -1); 
+		} else if (StartOf(3)) {
 			Primary();
-			if (la.kind == 48) {
+			if (la.kind == 45) {
 				Get();
+				op = tIdx; 
 				Primary();
+				Node(Ast.BINARY, op, m); 
 			}
-		} else if (la.kind == 49) {
+		} else if (la.kind == 46) {
 			Get();
-		} else if (la.kind == 50) {
+			Leaf(Ast.BOOL); 
+		} else if (la.kind == 47) {
 			Get();
+			Leaf(Ast.BOOL); 
 		} else SynErr(58);
 	}
 
 	void MulOp() {
 		Expect(36);
-		System.out.println(getKind(t.kind) + " = " + t.val); 
 	}
 
 	void decimal_literal() {
@@ -414,38 +509,65 @@ class ExprKind {
 	}
 
 	void exponent() {
-		if (la.kind == 51) {
-			Get();
+		Expect(51);
+		if (la.kind == 39 || la.kind == 40) {
 			if (la.kind == 40) {
 				Get();
-			}
-			Expect(2);
-		} else if (la.kind == 51) {
-			Get();
-			if (la.kind == 39) {
+			} else {
 				Get();
 			}
-			Expect(2);
-		} else SynErr(59);
+		}
+		Expect(2);
 	}
 
 
 
 	public void Parse() {
-		la = new Token();
+		long t0 = Stats.Now();
+		tokens.Clear(); nextIdx = 0; laIdx = -1;
+		la = view0;
 		la.val = "";		
-		Get();
+		try {
+			Get();
 		ada();
 		Expect(0);
 
+		} finally {
+			scanner.StopPipeline(); // a scanning thread would wait for this parse forever
+		}
+		if (Stats.ON) stats.Finish(Stats.Now() - t0);
 	}
 
-	private static final boolean[][] set = {
+	// set[s] has bit k of word k >>> 6 on if terminal k is in set s
+	private static final long[][] set = Pack(new boolean[][] {
 		{_T,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x},
-		{_x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_T,_x,_x, _x,_x,_x,_x, _T,_x,_x,_T, _T,_x,_x,_T, _x,_T,_x,_T, _x,_x,_x,_x, _x,_x,_x},
+		{_x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_T,_T, _T,_T,_x,_T, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x},
+		{_x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_T,_x,_x, _x,_x,_x,_x, _T,_x,_x,_T, _T,_x,_x,_T, _x,_x,_x,_x, _T,_x,_T,_x, _x,_x,_x},
 		{_x,_T,_T,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_T,_x, _x,_x,_x,_x, _x,_x,_x,_T, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x,_x, _x,_x,_x}
 
-	};
+	});
+
+	// one bitset per row of flags, the flags are generated one per terminal
+	private static long[][] Pack (boolean[][] flags) {
+		long[][] sets = new long[flags.length][];
+		for (int s = 0; s < flags.length; s++) {
+			long[] w = new long[(flags[s].length + 63) >>> 6];
+			for (int k = 0; k < flags[s].length; k++) if (flags[s][k]) w[k >>> 6] |= 1L << k;
+			sets[s] = w;
+		}
+		return sets;
+	}
+
+	static boolean In (long[] set, int k) {
+		return (set[k >>> 6] & (1L << k)) != 0;
+	}
+
+	// union of the sets a, b and c, a word at a time
+	static long[] Union (long[] a, long[] b, long[] c) {
+		long[] u = new long[a.length];
+		for (int i = 0; i < u.length; i++) u[i] = a[i] | b[i] | c[i];
+		return u;
+	}
 } // end Parser
 
 
@@ -465,7 +587,17 @@ class Errors {
 		errorStream.println(b.toString());
 	}
 	
-	public void SynErr (int line, int col, int n) {
+	// messages of the syntax errors indexed by error number, built once from the
+	// generated switch; for n <= Parser.maxT they read "<name of token kind n> expected"
+	static final String[] messages = Messages();
+
+	private static String[] Messages() {
+		java.util.ArrayList<String> m = new java.util.ArrayList<String>();
+		for (String s; (s = Message(m.size())) != null; ) m.add(s);
+		return m.toArray(new String[0]);
+	}
+
+	private static String Message (int n) {
 		String s;
 		switch (n) {
 			case 0: s = "EOF expected"; break;
@@ -513,12 +645,12 @@ class Errors {
 			case 42: s = "rbrack expected"; break;
 			case 43: s = "rpar expected"; break;
 			case 44: s = "tilde expected"; break;
-			case 45: s = "\":=\" expected"; break;
-			case 46: s = "\"\'\" expected"; break;
-			case 47: s = "\"..\" expected"; break;
-			case 48: s = "\"**\" expected"; break;
-			case 49: s = "\"true\" expected"; break;
-			case 50: s = "\"false\" expected"; break;
+			case 45: s = "power expected"; break;
+			case 46: s = "true expected"; break;
+			case 47: s = "false expected"; break;
+			case 48: s = "\":=\" expected"; break;
+			case 49: s = "\"\'\" expected"; break;
+			case 50: s = "\"..\" expected"; break;
 			case 51: s = "\"e\" expected"; break;
 			case 52: s = "\"#\" expected"; break;
 			case 53: s = "??? expected"; break;
@@ -526,11 +658,14 @@ class Errors {
 			case 55: s = "invalid type"; break;
 			case 56: s = "invalid Primary"; break;
 			case 57: s = "invalid AddOp"; break;
-			case 58: s = "invalid Factor"; break;
-			case 59: s = "invalid exponent"; break;
-			default: s = "error " + n; break;
+			case 58: s = "invalid Factor"; break;
+			default: s = null; break;
 		}
-		printMsg(line, col, s);
+		return s;
+	}
+
+	public void SynErr (int line, int col, int n) {
+		printMsg(line, col, n >= 0 && n < messages.length ? messages[n] : "error " + n);
 		count++;
 	}
 
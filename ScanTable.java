@@ -0,0 +1,335 @@
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+//-----------------------------------------------------------------------------------
+// ScanTable  -- java -cp Coco.jar:. ScanTable [-switch] <grammar> [output directory]
+//-----------------------------------------------------------------------------------
+// Generates Scanner.java and Parser.java as java -jar Coco.jar would, then replaces
+// the switch over the states in NextToken by a loop over transition tables (see
+// ScannerTable.frame, which is read from the directory of the grammar). A large
+// switch with an if chain per state is often left to the interpreter or compiled
+// poorly by the JIT; the loop is small and its tables are a few KB. With -switch
+// the switch is kept. Either way the code that Coco writes is tidied (see Tidy),
+// and the names of the token kinds are written into Parser.java (see TokenNames).
+//
+// The tables are taken from Coco's automaton after it has been made deterministic.
+// Coco keeps it in package-private classes, so they are read by reflection (and
+// this compiles without Coco.jar). Context-dependent tokens are not supported.
+class ScanTable {
+	static final int EOF = Character.MAX_VALUE + 1; // Buffer.EOF
+
+	public static void main(String[] args) throws Exception {
+		boolean table = args.length == 0 || !args[0].equals("-switch");
+		int a = table ? 0 : 1; // first argument after the option
+		if (args.length - a < 1 || args.length - a > 2) {
+			System.out.println("Usage: java -cp Coco.jar:. ScanTable [-switch] <grammar> [output directory]");
+			System.exit(1);
+		}
+		String src = args[a];
+		String dir = new File(src).getParent();
+		String out = args.length - a > 1 ? args[a + 1] : dir;
+		Object parser = RunCoco(src, dir, out);
+		File parserFile = new File(out, "Parser.java");
+		String names = TokenNames(new String(Files.readAllBytes(parserFile.toPath()), StandardCharsets.UTF_8), Get(parser, "tab"));
+		Files.write(parserFile.toPath(), names.getBytes(StandardCharsets.UTF_8));
+		File scanner = new File(out, "Scanner.java");
+		String code = Tidy(new String(Files.readAllBytes(scanner.toPath()), StandardCharsets.UTF_8));
+		if (table) {
+			Object tab = Get(parser, "tab");
+			Object dfa = Get(parser, "dfa");
+			if ((Boolean) Get(dfa, "hasCtxMoves")) Fail("context-dependent tokens cannot be scanned with tables");
+			ScanTable t = new ScanTable(tab, dfa);
+			String frame = new String(Files.readAllBytes(new File(dir, "ScannerTable.frame").toPath()), StandardCharsets.UTF_8);
+			code = t.Rewrite(code, frame);
+			System.out.println("table scanner: " + t.next.length + " states, " + t.classes + " character classes");
+		}
+		Files.write(scanner.toPath(), code.getBytes(StandardCharsets.UTF_8));
+	}
+
+	// what Coco.main does; returns Coco's parser after generating
+	static Object RunCoco(String src, String dir, String out) throws Exception {
+		Class<?> parserClass = Class.forName("Coco.Parser");
+		Object scanner = New("Coco.Scanner", String.class, src);
+		Object parser = parserClass.getConstructor(Class.forName("Coco.Scanner")).newInstance(scanner);
+		Set(parser, "trace", New("Coco.Trace", String.class, dir));
+		Object tab = New("Coco.Tab", parserClass, parser);
+		Set(parser, "tab", tab);
+		Set(parser, "dfa", New("Coco.DFA", parserClass, parser));
+		Set(parser, "pgen", New("Coco.ParserGen", parserClass, parser));
+		Set(tab, "srcName", src);
+		Set(tab, "srcDir", dir);
+		Set(tab, "outDir", out);
+		Call(parser, "Parse");
+		Call(Get(parser, "trace"), "Close");
+		int errors = (Integer) Get(Get(parser, "errors"), "count");
+		if (errors > 0) Fail(errors + " errors detected");
+		return parser;
+	}
+
+	//---------- the tables ----------
+
+	short[][] next;    // next[state][class], 0 if no transition
+	short[] accept;    // token kind of each state, -1 if none
+	boolean[] literal; // the token of the state is checked against the literals
+	String[] names;    // token name of each state, null if none
+	int[] from, to, cls; // the characters from[i] .. to[i] are in class cls[i]
+	int classes;       // number of classes
+
+	ScanTable(Object tab, Object dfa) throws Exception {
+		int litToken = (Integer) Static("Coco.Symbol", "classLitToken");
+		List<Object> states = new ArrayList<Object>();
+		int n = 0;
+		for (Object s = Get(dfa, "firstState"); s != null; s = Get(s, "next")) {
+			states.add(s);
+			n = Math.max(n, (Integer) Get(s, "nr") + 1);
+		}
+		accept = new short[n];
+		literal = new boolean[n];
+		names = new String[n];
+		Arrays.fill(accept, (short) -1);
+
+		// the transitions as ranges of characters; their bounds split the characters
+		// into intervals that every state treats alike
+		List<int[]> trans = new ArrayList<int[]>(); // state, from, to, target
+		TreeSet<Integer> bounds = new TreeSet<Integer>();
+		bounds.add(0); bounds.add(EOF); bounds.add(EOF + 1);
+		for (Object s : states) {
+			int nr = (Integer) Get(s, "nr");
+			Object sym = Get(s, "endOf");
+			if (sym != null) {
+				if (nr == 0) Fail("the start state accepts a token");
+				accept[nr] = (short) (int) (Integer) Get(sym, "n");
+				literal[nr] = (Integer) Get(sym, "tokenKind") == litToken;
+				names[nr] = (String) Get(sym, "name");
+			}
+			for (Object a = Get(s, "firstAction"); a != null; a = Get(a, "next")) {
+				Object target = Get(a, "target");
+				if (Get(target, "next") != null) Fail("the automaton is not deterministic");
+				int goal = (Integer) Get(Get(target, "state"), "nr");
+				if (goal == 0) Fail("a transition leads back to the start state");
+				Object set = Call(a, "Symbols", Class.forName("Coco.Tab"), tab);
+				for (Object r = Get(set, "head"); r != null; r = Get(r, "next")) {
+					int lo = (Integer) Get(r, "from"), hi = (Integer) Get(r, "to");
+					trans.add(new int[] {nr, lo, hi, goal});
+					bounds.add(lo); bounds.add(hi + 1);
+				}
+			}
+		}
+
+		// the targets of all states for each interval; intervals with the same
+		// targets are one class, class 0 is the one without any transition
+		Integer[] b = bounds.toArray(new Integer[0]);
+		int[][] targets = new int[b.length - 1][n];
+		for (int[] tr : trans) {
+			for (int i = Arrays.binarySearch(b, tr[1]); b[i] <= tr[2]; i++) targets[i][tr[0]] = tr[3];
+		}
+		Map<List<Integer>, Integer> classOf = new HashMap<List<Integer>, Integer>();
+		classOf.put(Row(new int[n]), 0);
+		List<int[]> rows = new ArrayList<int[]>();
+		rows.add(new int[n]);
+		List<int[]> ranges = new ArrayList<int[]>(); // from, to, class, merged if adjacent
+		for (int i = 0; i < targets.length; i++) {
+			List<Integer> key = Row(targets[i]);
+			Integer c = classOf.get(key);
+			if (c == null) {
+				c = rows.size();
+				classOf.put(key, c);
+				rows.add(targets[i]);
+			}
+			int last = ranges.size() - 1;
+			if (last >= 0 && ranges.get(last)[2] == c && ranges.get(last)[1] == b[i] - 1) ranges.get(last)[1] = b[i + 1] - 1;
+			else ranges.add(new int[] {b[i], b[i + 1] - 1, c});
+		}
+		classes = rows.size();
+		if (classes > Byte.MAX_VALUE) Fail(classes + " character classes do not fit into a byte");
+		next = new short[n][classes];
+		for (int c = 0; c < classes; c++) {
+			for (int s = 0; s < n; s++) next[s][c] = (short) rows.get(c)[s];
+		}
+		int k = 0;
+		for (int[] r : ranges) if (r[2] != 0) k++;
+		from = new int[k]; to = new int[k]; cls = new int[k];
+		k = 0;
+		for (int[] r : ranges) {
+			if (r[2] == 0) continue;
+			from[k] = r[0]; to[k] = Math.min(r[1], EOF - 1); cls[k] = r[2];
+			k++;
+		}
+	}
+
+	static List<Integer> Row(int[] a) {
+		List<Integer> l = new ArrayList<Integer>(a.length);
+		for (int x : a) l.add(x);
+		return l;
+	}
+
+	//---------- Scanner.java ----------
+
+	// Coco stores the text of a token that may be a literal in t.val before it calls
+	// CheckLiteral, a String per identifier even when NextToken fills a TokenTable.
+	// CheckLiteral looks at tval, and NextToken sets t.val at its end when it returns
+	// a Token, so the token leaves the automaton like any other. The literals are
+	// registered with their kinds as ints rather than new Integer. Stats counts the
+	// calls of the comment methods where Coco generates them, and the calls that find
+	// no comment and go back, whatever the grammar's comments start with.
+	static String Tidy(String code) {
+		code = code.replace("t.val = new String(tval, 0, tlen); CheckLiteral(); return t;", "CheckLiteral(); break loop;");
+		code = code.replaceAll("(\tboolean Comment\\d+\\(\\) \\{\n)", "$1\t\tif (Stats.ON) stats.comments++;\n");
+		code = code.replaceAll("(\t+)(buffer\\.setPos\\(pos0\\);)", "$1if (Stats.ON) stats.backtracks++; // no comment after all\n$1$2");
+		return code.replaceAll("new Integer\\((\\d+)\\)", "$1");
+	}
+
+	// code with the automaton of NextToken replaced by the parts of frame
+	String Rewrite(String code, String frame) {
+		Map<String, String> part = Parts(frame);
+		int begin = code.indexOf("// begin automaton");
+		int end = code.indexOf("// end automaton");
+		if (begin < 0 || end < begin) Fail("no automaton in Scanner.java (is it generated from Scanner.frame?)");
+		begin = code.lastIndexOf('\n', begin) + 1;
+		end = code.indexOf('\n', end) + 1;
+		StringBuilder b = new StringBuilder(code.length());
+		b.append(code, 0, begin).append(part.get("automaton")).append(code, end, code.length());
+		for (String line : part.get("tables").split("\n", -1)) {
+			if (line.equals("-->next")) Next(b);
+			else if (line.equals("-->accept")) Accept(b);
+			else if (line.equals("-->literal")) Literal(b);
+			else if (line.equals("-->classes")) Classes(b);
+			else b.append(line).append('\n');
+		}
+		b.setLength(b.length() - 1); // the split added one
+		return b.toString();
+	}
+
+	// the text after each -->name of frame, up to the next one
+	static Map<String, String> Parts(String frame) {
+		Map<String, String> part = new HashMap<String, String>();
+		String name = null;
+		StringBuilder b = new StringBuilder();
+		for (String line : frame.split("\n", -1)) {
+			if (line.equals("-->automaton") || line.equals("-->tables")) {
+				if (name != null) part.put(name, b.toString());
+				name = line.substring(3);
+				b.setLength(0);
+			} else if (name != null) b.append(line).append('\n');
+		}
+		if (name != null) part.put(name, b.substring(0, Math.max(0, b.length() - 1)));
+		if (!part.containsKey("automaton") || !part.containsKey("tables")) Fail("ScannerTable.frame is incomplete");
+		return part;
+	}
+
+	void Next(StringBuilder b) {
+		for (int s = 0; s < next.length; s++) {
+			b.append("\t\t{");
+			for (int c = 0; c < next[s].length; c++) {
+				if (c > 0) b.append(", ");
+				b.append(next[s][c]);
+			}
+			b.append("}, // ").append(s).append(s == 0 ? " start" : names[s] != null ? " " + names[s] : "").append('\n');
+		}
+	}
+
+	void Accept(StringBuilder b) {
+		b.append("\t\t");
+		for (int s = 0; s < accept.length; s++) {
+			b.append(accept[s]).append(s + 1 < accept.length ? s % 16 == 15 ? ",\n\t\t" : ", " : "\n");
+		}
+	}
+
+	void Literal(StringBuilder b) {
+		b.append("\t\t");
+		for (int s = 0; s < literal.length; s++) {
+			b.append(literal[s]).append(s + 1 < literal.length ? s % 8 == 7 ? ",\n\t\t" : ", " : "\n");
+		}
+	}
+
+	void Classes(StringBuilder b) {
+		for (int i = 0; i < from.length; i++) {
+			b.append("\t\t\t").append(Ch(from[i])).append(", ").append(Ch(to[i])).append(", ").append(cls[i]).append(",\n");
+		}
+	}
+
+	// ch as Coco writes it: a character literal if printable, else a number
+	static String Ch(int ch) {
+		if (ch < ' ' || ch > '~' || ch == '\'' || ch == '\\') return String.valueOf(ch);
+		return "'" + (char) ch + "'";
+	}
+
+	//---------- Parser.java ----------
+
+	// code with Parser.tokenNames, which the frame leaves empty, listing the names of
+	// the terminals by kind as the grammar writes them (literals in quotes)
+	static String TokenNames(String code, Object tab) throws Exception {
+		String empty = "tokenNames = {};";
+		int i = code.indexOf(empty);
+		if (i < 0) Fail("no tokenNames in Parser.java (is it generated from Parser.frame?)");
+		String nl = code.startsWith("\r\n", i + empty.length()) ? "\r\n" : "\n";
+		StringBuilder b = new StringBuilder(code.length() + 1024);
+		b.append(code, 0, i).append("tokenNames = {");
+		List<?> terminals = (List<?>) Get(tab, "terminals");
+		for (int k = 0; k < terminals.size(); k++) {
+			String name = (String) Get(terminals.get(k), "name");
+			b.append(k % 8 == 0 ? nl + "\t\t" : " ").append('"').append(name.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",");
+		}
+		return b.append(nl).append("\t};").append(code, i + empty.length(), code.length()).toString();
+	}
+
+	//---------- reflection ----------
+
+	static void Fail(String msg) {
+		System.out.println("-- " + msg);
+		System.exit(1);
+	}
+
+	static Field FieldOf(Class<?> c, String name) throws NoSuchFieldException {
+		for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+			try {
+				Field f = k.getDeclaredField(name);
+				f.setAccessible(true);
+				return f;
+			} catch (NoSuchFieldException e) {
+				// in a superclass
+			}
+		}
+		throw new NoSuchFieldException(c.getName() + "." + name);
+	}
+
+	static Object Get(Object o, String name) throws Exception {
+		return FieldOf(o.getClass(), name).get(o);
+	}
+
+	static void Set(Object o, String name, Object value) throws Exception {
+		FieldOf(o.getClass(), name).set(o, value);
+	}
+
+	static Object Static(String cls, String name) throws Exception {
+		return FieldOf(Class.forName(cls), name).get(null);
+	}
+
+	static Object New(String cls, Class<?> param, Object arg) throws Exception {
+		Constructor<?> c = Class.forName(cls).getDeclaredConstructor(param);
+		c.setAccessible(true);
+		return c.newInstance(arg);
+	}
+
+	static Object Call(Object o, String name, Object... args) throws Exception {
+		Class<?>[] types = new Class<?>[args.length / 2];
+		Object[] values = new Object[args.length / 2];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = (Class<?>) args[2 * i];
+			values[i] = args[2 * i + 1];
+		}
+		Method m = o.getClass().getDeclaredMethod(name, types);
+		m.setAccessible(true);
+		return m.invoke(o, values);
+	}
+}
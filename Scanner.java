@@ -2,6 +2,17 @@
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -15,6 +26,199 @@ class Token {
 	public Token next;  // ML 2005-03-11 Peek tokens are kept in linked list
 }
 
+//-----------------------------------------------------------------------------------
+// TokenTable  -- tokens kept in parallel arrays instead of Token objects
+//-----------------------------------------------------------------------------------
+class TokenTable {
+	private static final int MIN_LENGTH = 256;
+	public int[] kind;    // token kind
+	public int[] pos;     // token position in bytes in the source text (starting at 0)
+	public int[] charPos; // token position in characters in the source text (starting at 0)
+	public int[] line;    // token line (starting at 1)
+	public int[] col;     // token column (starting at 1)
+	public int[] len;     // token length in characters
+	private int[] textStart; // start of the token value in text
+	private char[] text;  // values of all tokens, one after the other
+	private int textLen;  // used length of text
+	public int count;     // number of tokens in the table
+
+	public TokenTable() {
+		kind = new int[MIN_LENGTH]; pos = new int[MIN_LENGTH]; charPos = new int[MIN_LENGTH];
+		line = new int[MIN_LENGTH]; col = new int[MIN_LENGTH]; len = new int[MIN_LENGTH];
+		textStart = new int[MIN_LENGTH];
+		text = new char[MIN_LENGTH * 8];
+	}
+
+	// forget all tokens but keep the arrays for the next source
+	public void Clear() {
+		count = 0; textLen = 0;
+	}
+
+	// appends t with the value tval[0 .. tlen-1], returns the index of the new entry
+	int Add(Token t, char[] tval, int tlen) {
+		return Add(t.kind, t.pos, t.charPos, t.line, t.col, tval, 0, tlen);
+	}
+
+	// appends token i of src, returns the index of the new entry
+	int AddFrom(TokenTable src, int i) {
+		return Add(src.kind[i], src.pos[i], src.charPos[i], src.line[i], src.col[i], src.text, src.textStart[i], src.len[i]);
+	}
+
+	private int Add(int k, int p, int cp, int l, int c, char[] s, int off, int n) {
+		if (count == kind.length) Grow();
+		if (textLen + n > text.length) {
+			char[] newText = new char[Math.max(2 * text.length, textLen + n)];
+			System.arraycopy(text, 0, newText, 0, textLen);
+			text = newText;
+		}
+		int i = count++;
+		kind[i] = k; pos[i] = p; charPos[i] = cp;
+		line[i] = l; col[i] = c; len[i] = n;
+		textStart[i] = textLen;
+		System.arraycopy(s, off, text, textLen, n);
+		textLen += n;
+		return i;
+	}
+
+	// forget the last token
+	void Drop() {
+		textLen = textStart[--count];
+	}
+
+	// adds lines to the lines and chars to the character positions of all tokens
+	void Shift(int lines, int chars) {
+		for (int i = 0; i < count; i++) {
+			line[i] += lines; charPos[i] += chars;
+		}
+	}
+
+	// true if token i has the same kind and value as token k of other
+	public boolean SameAs(int i, TokenTable other, int k) {
+		if (kind[i] != other.kind[k] || len[i] != other.len[k]) return false;
+		int a = textStart[i], b = other.textStart[k];
+		for (int n = len[i]; n > 0; n--) if (text[a++] != other.text[b++]) return false;
+		return true;
+	}
+
+	private void Grow() {
+		int n = 2 * kind.length;
+		kind = java.util.Arrays.copyOf(kind, n); pos = java.util.Arrays.copyOf(pos, n);
+		charPos = java.util.Arrays.copyOf(charPos, n); line = java.util.Arrays.copyOf(line, n);
+		col = java.util.Arrays.copyOf(col, n); len = java.util.Arrays.copyOf(len, n);
+		textStart = java.util.Arrays.copyOf(textStart, n);
+	}
+
+	// the value of token i, materialized on demand
+	public String Val(int i) {
+		return new String(text, textStart[i], len[i]);
+	}
+
+	// copy the value of token i to dst[off ..], returns the number of chars copied
+	public int GetChars(int i, char[] dst, int off) {
+		System.arraycopy(text, textStart[i], dst, off, len[i]);
+		return len[i];
+	}
+
+	// fill t with the fields of token i, t.val is not materialized
+	public void Load(int i, Token t) {
+		t.kind = kind[i]; t.pos = pos[i]; t.charPos = charPos[i];
+		t.line = line[i]; t.col = col[i]; t.val = null; t.next = null;
+	}
+
+	// writes the table column by column, positions and lines as differences to the
+	// previous token; read back by Read
+	public void Write(Packed out) {
+		out.PutInt(count); out.PutInt(textLen);
+		out.PutInts(kind, count, false); out.PutInts(pos, count, true); out.PutInts(charPos, count, true);
+		out.PutInts(line, count, true); out.PutInts(col, count, false); out.PutInts(len, count, false);
+		out.PutChars(text, 0, textLen);
+	}
+
+	// replaces the tokens by the ones written by Write
+	public void Read(Packed in) {
+		int n = in.GetInt(), tlen = in.GetInt();
+		if (n < 0 || tlen < 0 || n > in.len || tlen > in.len) throw new FatalError("damaged token table");
+		Clear();
+		if (kind.length < n) {
+			kind = new int[n]; pos = new int[n]; charPos = new int[n];
+			line = new int[n]; col = new int[n]; len = new int[n]; textStart = new int[n];
+		}
+		if (text.length < tlen) text = new char[tlen];
+		in.GetInts(kind, n, false); in.GetInts(pos, n, true); in.GetInts(charPos, n, true);
+		in.GetInts(line, n, true); in.GetInts(col, n, false); in.GetInts(len, n, false);
+		int start = 0;
+		for (int i = 0; i < n; i++) { // the values are stored one after the other
+			if (len[i] < 0) throw new FatalError("damaged token table");
+			textStart[i] = start; start += len[i];
+		}
+		if (start != tlen) throw new FatalError("damaged token table");
+		in.GetChars(text, 0, tlen);
+		count = n; textLen = tlen;
+	}
+}
+
+//-----------------------------------------------------------------------------------
+// TokenRing  -- batches of tokens handed from a scanning to a parsing thread
+//-----------------------------------------------------------------------------------
+// One producer and one consumer. The slots are filled in place and reused; only the
+// producer writes tail and only the consumer writes head, so no locks are needed.
+class TokenRing {
+	private final TokenTable[] slot;
+	private final int mask;
+	private volatile long head;         // next slot to be taken by the consumer
+	private volatile long tail;         // next slot to be filled by the producer
+	private volatile boolean closed;    // the consumer is gone, the producer stops
+	private volatile Throwable failure; // exception that stopped the producer
+
+	// slots is rounded up to a power of 2
+	public TokenRing(int slots) {
+		int n = Integer.highestOneBit(Math.max(slots, 2) - 1) << 1;
+		slot = new TokenTable[n];
+		for (int i = 0; i < n; i++) slot[i] = new TokenTable();
+		mask = n - 1;
+	}
+
+	// producer: the next free slot, null if the ring was closed
+	TokenTable Reserve() {
+		for (int spins = 0; tail - head > mask; spins++) {
+			if (closed) return null;
+			Backoff(spins);
+		}
+		return slot[(int) tail & mask];
+	}
+
+	// producer: hand the reserved slot to the consumer
+	void Publish() { tail = tail + 1; }
+
+	// producer: the scanner failed, the consumer rethrows e when it runs dry
+	void Fail(Throwable e) { failure = e; }
+
+	// consumer: the next filled slot, waits for the producer if needed
+	TokenTable Take() {
+		for (int spins = 0; head == tail; spins++) {
+			Throwable e = failure;
+			if (e != null && head == tail) {
+				if (e instanceof RuntimeException) throw (RuntimeException) e;
+				throw new FatalError("Scanner failed: " + e);
+			}
+			Backoff(spins);
+		}
+		return slot[(int) head & mask];
+	}
+
+	// consumer: the taken slot may be filled again
+	void Release() { head = head + 1; }
+
+	// consumer: no more slots are taken
+	void Close() { closed = true; }
+
+	private static void Backoff(int spins) {
+		if (spins < 100) Thread.onSpinWait();
+		else if (spins < 200) Thread.yield();
+		else LockSupport.parkNanos(20000);
+	}
+}
+
 //-----------------------------------------------------------------------------------
 // Buffer
 //-----------------------------------------------------------------------------------
@@ -23,11 +227,17 @@ class Buffer {
 	// 1) seekable stream (file)
 	//    a) whole stream in buffer
 	//    b) part of stream in buffer
-	// 2) non seekable stream (network, console)
+	// 2) non seekable stream (network, console), of which only the bytes from the
+	//    last Discard position on are kept
+	// 3) memory mapped file (default for seekable files)
+	// 4) bytes in memory, which may have a gap (see Text)
+	// Characters that are already decoded are read by TextBuffer
 
 	public static final int EOF = Character.MAX_VALUE + 1;
 	private static final int MIN_BUFFER_LENGTH = 1024; // 1KB
 	private static final int MAX_BUFFER_LENGTH = MIN_BUFFER_LENGTH * 64; // 64KB
+	private static final int MAP_CHUNK_SHIFT = 30; // files are mapped in chunks of 1GB
+	private static final int MAP_CHUNK_MASK = (1 << MAP_CHUNK_SHIFT) - 1;
 	private byte[] buf;   // input buffer
 	private int bufStart; // position of first byte in buffer relative to input stream
 	private int bufLen;   // length of buffer
@@ -35,14 +245,48 @@ class Buffer {
 	private int bufPos;      // current position in buffer
 	private RandomAccessFile file; // input stream (seekable)
 	private InputStream stream; // growing input stream (e.g.: console, network)
+	private int keep;     // stream bytes before keep are no longer needed (see Discard)
+	private MappedByteBuffer[] map; // memory mapped input file, null if not mapped
+	private int mapPos;   // current position in mapped file
+	private int gap, gapLen; // in memory: buf[gap .. gap+gapLen-1] is no part of the input
+	Stats stats;          // counters of the unit, null unless Stats.ON
+	private static final long HIGH_BITS = 0x8080808080808080L; // bits that are 0 in 8 ASCII bytes
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
 
 	public Buffer(InputStream s) {
+		this(s, Stats.ON ? new Stats("-") : null);
+	}
+
+	public Buffer(InputStream s, Stats stats) {
+		this.stats = stats;
 		stream = s;
 		fileLen = bufLen = bufStart = bufPos = 0;
 		buf = new byte[MIN_BUFFER_LENGTH];
 	}
 
 	public Buffer(String fileName) {
+		this(fileName, true);
+	}
+
+	// the bytes of s but s[gap .. gapEnd-1], see Text
+	public Buffer(byte[] s, int gap, int gapEnd, Stats stats) {
+		this.stats = stats;
+		Text(s, gap, gapEnd);
+		if (Stats.ON) stats.bytes += fileLen;
+	}
+
+	// for subclasses that read their input themselves
+	protected Buffer(Stats stats) {
+		this.stats = stats;
+	}
+
+	public Buffer(String fileName, boolean mapFile) {
+		this(fileName, mapFile, Stats.ON ? new Stats(fileName) : null);
+	}
+
+	public Buffer(String fileName, boolean mapFile, Stats stats) {
+		this.stats = stats;
+		if (mapFile && Map(fileName)) return;
 		try {
 			file = new RandomAccessFile(fileName, "r");
 			fileLen = (int) file.length();
@@ -57,9 +301,47 @@ class Buffer {
 		}
 	}
 
+	// Maps the whole file into memory, so that setPos and Peek never have to
+	// re-read the file. Returns false if the file cannot be mapped (e.g. a
+	// device or pipe), the caller then falls back to the windowed buffer.
+	private boolean Map(String fileName) {
+		RandomAccessFile f;
+		try {
+			f = new RandomAccessFile(fileName, "r");
+		} catch (IOException e) {
+			throw new FatalError("Could not open file " + fileName);
+		}
+		try {
+			FileChannel channel = f.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new FatalError("File too large " + fileName);
+			}
+			int chunks = (int) ((size + MAP_CHUNK_MASK) >>> MAP_CHUNK_SHIFT);
+			MappedByteBuffer[] m = new MappedByteBuffer[Math.max(chunks, 1)];
+			for (int i = 0; i < m.length; i++) {
+				long start = (long) i << MAP_CHUNK_SHIFT;
+				m[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, MAP_CHUNK_MASK + 1L));
+			}
+			map = m;
+			fileLen = (int) size;
+			if (Stats.ON) stats.bytes += size;
+			mapPos = 0;
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			// the mapping stays valid after the file is closed
+			try { f.close(); } catch (IOException e) { throw new FatalError(e.getMessage()); }
+		}
+	}
+
 	// don't use b after this call anymore
 	// called in UTF8Buffer constructor
 	protected Buffer(Buffer b) {
+		map = b.map;
+		mapPos = b.mapPos;
+		gap = b.gap; gapLen = b.gapLen;
 		buf = b.buf;
 		bufStart = b.bufStart;
 		bufLen = b.bufLen;
@@ -67,10 +349,20 @@ class Buffer {
 		bufPos = b.bufPos;
 		file = b.file;
 		stream = b.stream;
+		keep = b.keep;
+		stats = b.stats;
 		// keep finalize from closing the file
 		b.file = null;
 	}
 
+	// the bytes start .. end-1 of the mapped file of b, at their positions in the file
+	private Buffer(Buffer b, int start, int end, Stats stats) {
+		map = b.map;
+		mapPos = start;
+		fileLen = end;
+		this.stats = stats;
+	}
+
 	protected void finalize() throws Throwable {
 		super.finalize();
 		Close();
@@ -88,6 +380,13 @@ class Buffer {
 	}
 
 	public int Read() {
+		if (map != null) {
+			if (mapPos < fileLen) {
+				int p = mapPos++;
+				return map[p >>> MAP_CHUNK_SHIFT].get(p & MAP_CHUNK_MASK) & 0xff;
+			}
+			return EOF;
+		}
 		if (bufPos < bufLen) {
 			return buf[bufPos++] & 0xff;  // mask out sign bits
 		} else if (getPos() < fileLen) {
@@ -101,12 +400,99 @@ class Buffer {
 	}
 
 	public int Peek() {
+		if (map != null) { // no re-read needed, just restore the position
+			int p = mapPos;
+			int ch = Read();
+			mapPos = p;
+			return ch;
+		}
 		int curPos = getPos();
 		int ch = Read();
 		setPos(curPos);
 		return ch;
 	}
 
+	// number of bytes below 0x80 from the current position on (at most max), without
+	// moving; they are checked 8 at a time and only as far as they are in memory
+	protected int AsciiRun(int max) {
+		if (map != null) {
+			MappedByteBuffer m = map[mapPos >>> MAP_CHUNK_SHIFT];
+			int i = mapPos & MAP_CHUNK_MASK, base = mapPos - i;
+			int end = (int) Math.min(Math.min((long) mapPos + max, fileLen), base + m.limit()) - base;
+			while (i + 8 <= end && (m.getLong(i) & HIGH_BITS) == 0) i += 8;
+			while (i < end && m.get(i) >= 0) i++;
+			return base + i - mapPos;
+		}
+		int i = bufPos, end = bufPos + Math.min(max, bufLen - bufPos);
+		while (i + 8 <= end && ((long) LONGS.get(buf, i) & HIGH_BITS) == 0) i += 8;
+		while (i < end && buf[i] >= 0) i++;
+		return i - bufPos;
+	}
+
+	// true if the first non-ASCII character from the current position on is a valid
+	// UTF-8 sequence (e.g. UTF-8 without byte order mark); the bytes after it are not
+	// looked at. Streams cannot be looked ahead and are never taken for UTF-8
+	public boolean Utf8() {
+		int p = getPos(), q = p;
+		if (stream != null || p >= fileLen) return false;
+		boolean utf8 = false;
+		for (int run = 1; run > 0 && q < fileLen; q += run) {
+			setPos(q);
+			run = AsciiRun(fileLen - q);
+		}
+		if (q < fileLen) { // q is the first non-ASCII byte
+			int ch = Read(), n; // n: continuation bytes that must follow ch
+			if (ch >= 0xC2 && ch <= 0xDF) n = 1;
+			else if (ch >= 0xE0 && ch <= 0xEF) n = 2;
+			else if (ch >= 0xF0 && ch <= 0xF4) n = 3;
+			else n = -1; // no start of a sequence
+			while (n > 0 && (Read() & 0xC0) == 0x80) n--;
+			utf8 = n == 0;
+		}
+		setPos(p);
+		return utf8;
+	}
+
+	// read the bytes of s but s[gap .. gapEnd-1] from now on, e.g. the text of an editor
+	// with the gap at the cursor; s is not copied, so the input can be changed between
+	// two scans and then given here again. The position is 0
+	public void Text(byte[] s, int gap, int gapEnd) {
+		buf = s; this.gap = gap; gapLen = gapEnd - gap;
+		fileLen = s.length - gapLen;
+		bufStart = 0; bufPos = 0; bufLen = gapLen > 0 ? gap : s.length; // the part before the gap
+	}
+
+	// length of the file if it is mapped, -1 otherwise
+	public int MappedLength() {
+		return map != null ? fileLen : -1;
+	}
+
+	// the mapped file in chunks, all but the last 1 << MAP_CHUNK_SHIFT bytes long; null
+	// if it is not mapped. They are read with absolute gets, which keep the position
+	public MappedByteBuffer[] Mapped() {
+		return map;
+	}
+
+	// a buffer of its own for the bytes start .. end-1 of the mapped file, which
+	// keeps their positions; buffers of the same file can be read by different threads
+	Buffer Slice(int start, int end, Stats stats) {
+		if (map == null) throw new FatalError("only a mapped file can be sliced");
+		return new Buffer(this, start, end, stats);
+	}
+
+	// the position after the first LF from position p on of the mapped file, the
+	// length of the file if there is none
+	int NextLine(int p) {
+		while (p < fileLen && map[p >>> MAP_CHUNK_SHIFT].get(p & MAP_CHUNK_MASK) != '\n') p++;
+		return Math.min(p + 1, fileLen);
+	}
+
+	// the input before position pos will not be read again (the scanner calls it at
+	// the start of every token), a stream may drop it
+	public void Discard(int pos) {
+		keep = pos;
+	}
+
 	// beg .. begin, zero-based, inclusive, in byte
 	// end .. end, zero-based, exclusive, in byte
 	public String GetString(int beg, int end) {
@@ -120,6 +506,7 @@ class Buffer {
 	}
 
 	public int getPos() {
+		if (map != null) return mapPos;
 		return bufPos + bufStart;
 	}
 
@@ -136,13 +523,23 @@ class Buffer {
 			throw new FatalError("buffer out of bounds access, position: " + value);
 		}
 
-		if (value >= bufStart && value < bufStart + bufLen) { // already in buffer
+		if (map != null) { // random access, nothing to swap in
+			mapPos = value;
+		} else if (gapLen > 0) { // in memory, the part before or the part after the gap
+			if (value < gap) { bufStart = 0; bufLen = gap; }
+			else { bufStart = -gapLen; bufLen = buf.length; }
 			bufPos = value - bufStart;
+		} else if (value >= bufStart && value < bufStart + bufLen) { // already in buffer
+			bufPos = value - bufStart;
+			if (value < keep) keep = value; // e.g. Scanner.Restart, needed again
+		} else if (value < bufStart && stream != null) {
+			throw new FatalError("stream position " + value + " was already discarded");
 		} else if (file != null) { // must be swapped in
 			try {
 				file.seek(value);
 				bufLen = file.read(buf);
 				bufStart = value; bufPos = 0;
+				if (Stats.ON) { stats.swaps++; stats.bytes += Math.max(bufLen, 0); }
 			} catch(IOException e) {
 				throw new FatalError(e.getMessage());
 			}
@@ -152,7 +549,7 @@ class Buffer {
 		}
 	}
 	
-	// Read the next chunk of bytes from the stream, increases the buffer
+	// Read the next chunk of bytes from the stream, makes room in the buffer
 	// if needed and updates the fields fileLen and bufLen.
 	// Returns the number of bytes read.
 	private int ReadNextStreamChunk() {
@@ -160,12 +557,21 @@ class Buffer {
 		if (free == 0) {
 			// in the case of a growing input stream
 			// we can neither seek in the stream, nor can we
-			// foresee the maximum length, thus we must adapt
-			// the buffer size on demand.
-			byte[] newBuf = new byte[bufLen * 2];
-			System.arraycopy(buf, 0, newBuf, 0, bufLen);
-			buf = newBuf;
-			free = bufLen;
+			// foresee the maximum length. The bytes before keep
+			// are dropped once the buffer has its maximum length
+			// and that frees at least half of it, otherwise the
+			// buffer size is adapted on demand.
+			int drop = Math.min(keep - bufStart, bufLen); // keep may lie ahead (setPos)
+			if (bufLen >= MAX_BUFFER_LENGTH && drop >= bufLen / 2) {
+				System.arraycopy(buf, drop, buf, 0, bufLen - drop);
+				bufStart += drop; bufLen -= drop; bufPos -= drop;
+				if (Stats.ON) stats.swaps++;
+			} else {
+				byte[] newBuf = new byte[bufLen * 2];
+				System.arraycopy(buf, 0, newBuf, 0, bufLen);
+				buf = newBuf;
+			}
+			free = buf.length - bufLen;
 		}
 		
 		int read;
@@ -173,7 +579,9 @@ class Buffer {
 		catch (IOException ioex) { throw new FatalError(ioex.getMessage()); }
 		
 		if (read > 0) {
-			fileLen = bufLen = (bufLen + read);
+			if (Stats.ON) stats.bytes += read;
+			bufLen += read;
+			fileLen = bufStart + bufLen;
 			return read;
 		}
 		// end of stream reached
@@ -185,14 +593,28 @@ class Buffer {
 // UTF8Buffer
 //-----------------------------------------------------------------------------------
 class UTF8Buffer extends Buffer {
+	private int ascii; // bytes after the current position that are known to be below 0x80
+	private int runStart, runEnd; // the bytes runStart .. runEnd-1 are known to be below 0x80
+	private static final int MAX_RUN = 4096; // a run is measured this far at once, not to the end of the file
+
 	UTF8Buffer(Buffer b) { super(b); }
 
 	public int Read() {
-		int ch;
-		do {
-			ch = super.Read();
-			// until we find a utf8 start (0xxxxxxx or 11xxxxxx)
-		} while ((ch >= 128) && ((ch & 0xC0) != 0xC0) && (ch != EOF));
+		if (ascii > 0) { // within a run of ASCII characters
+			ascii--;
+			return super.Read();
+		}
+		int ch = super.Read();
+		if (ch < 128) {
+			// first 127 chars are the same in ascii and utf8, measure the run that follows
+			int p = getPos();
+			ascii = AsciiRun(MAX_RUN);
+			runStart = p - 1; runEnd = p + ascii;
+			return ch;
+		}
+		while ((ch >= 128) && ((ch & 0xC0) != 0xC0) && (ch != EOF)) {
+			ch = super.Read(); // until we find a utf8 start (0xxxxxxx or 11xxxxxx)
+		}
 		if (ch < 128 || ch == EOF) {
 			// nothing to do, first 127 chars are the same in ascii and utf8
 			// 0xxxxxxx or end of file character
@@ -217,30 +639,242 @@ class UTF8Buffer extends Buffer {
 		}
 		return ch;
 	}
+
+	public int Peek() {
+		int a = ascii;
+		int ch = super.Peek();
+		ascii = a;
+		return ch;
+	}
+
+	// a run that was measured before is not measured again
+	public void setPos(int value) {
+		super.setPos(value);
+		ascii = value >= runStart && value < runEnd ? runEnd - value : 0;
+	}
+
+	public void Text(byte[] s, int gap, int gapEnd) {
+		super.Text(s, gap, gapEnd);
+		ascii = runStart = runEnd = 0;
+	}
+}
+
+//-----------------------------------------------------------------------------------
+// TextBuffer  -- characters that are already in memory, e.g. the text of an editor
+//-----------------------------------------------------------------------------------
+// Positions are indices of chars, nothing is encoded or decoded. A surrogate pair
+// is read as one character, as UTF8Buffer reads the four bytes of its code point.
+class TextBuffer extends Buffer {
+	private final char[] chars;      // the characters if they are in an array
+	private final CharSequence text; // the characters otherwise
+	private final int len;           // number of characters
+	private int textPos;             // current position
+
+	TextBuffer(CharSequence s, Stats stats) {
+		super(stats);
+		chars = null; text = s; len = s.length();
+		if (Stats.ON) stats.bytes += len; // chars
+	}
+
+	TextBuffer(char[] s, Stats stats) {
+		super(stats);
+		chars = s; text = null; len = s.length;
+		if (Stats.ON) stats.bytes += len; // chars
+	}
+
+	public int Read() {
+		if (textPos >= len) return EOF;
+		char c = chars != null ? chars[textPos++] : text.charAt(textPos++);
+		if (Character.isHighSurrogate(c) && textPos < len) {
+			char d = chars != null ? chars[textPos] : text.charAt(textPos);
+			if (Character.isLowSurrogate(d)) { textPos++; return Character.toCodePoint(c, d); }
+		}
+		return c;
+	}
+
+	public int Peek() {
+		int p = textPos;
+		int ch = Read();
+		textPos = p;
+		return ch;
+	}
+
+	// characters are never taken for bytes of UTF-8
+	public boolean Utf8() {
+		return false;
+	}
+
+	public String GetString(int beg, int end) {
+		return chars != null ? new String(chars, beg, end - beg) : text.subSequence(beg, end).toString();
+	}
+
+	public int getPos() {
+		return textPos;
+	}
+
+	public void setPos(int value) {
+		if (value < 0 || value > len) {
+			throw new FatalError("buffer out of bounds access, position: " + value);
+		}
+		textPos = value;
+	}
 }
 
 //-----------------------------------------------------------------------------------
 // StartStates  -- maps characters to start states of tokens
 //-----------------------------------------------------------------------------------
 class StartStates {
-	private static class Elem {
-		public int key, val;
-		public Elem next;
-		public Elem(int key, int val) { this.key = key; this.val = val; }
-	}
+	private static final int DENSE_LENGTH = 256; // ASCII and Latin-1 are looked up directly
+	private int[] dense = new int[DENSE_LENGTH];
 
-	private Elem[] tab = new Elem[128];
+	// all other characters: disjoint ranges lo[i] .. hi[i] -> val[i], sorted by lo
+	private int[] lo = new int[4], hi = new int[4], val = new int[4];
+	private int ranges;
 
 	public void set(int key, int val) {
-		Elem e = new Elem(key, val);
-		int k = key % 128;
-		e.next = tab[k]; tab[k] = e;
+		if (key >= 0 && key < DENSE_LENGTH) dense[key] = val;
+		else SetRange(key, val);
 	}
 
 	public int state(int key) {
-		Elem e = tab[key % 128];
-		while (e != null && e.key != key) e = e.next;
-		return e == null ? 0: e.val;
+		if (key >= 0 && key < DENSE_LENGTH) return dense[key];
+		int i = Find(key);
+		return i >= 0 ? val[i] : 0;
+	}
+
+	// index of the range containing key, or -(insertion point) - 1
+	private int Find(int key) {
+		int l = 0, h = ranges - 1;
+		while (l <= h) {
+			int m = (l + h) >>> 1;
+			if (hi[m] < key) l = m + 1;
+			else if (lo[m] > key) h = m - 1;
+			else return m;
+		}
+		return -(l + 1);
+	}
+
+	private void SetRange(int key, int v) {
+		int i = Find(key);
+		if (i >= 0) {
+			if (val[i] == v) return;
+			// split the range around key, the later set wins
+			int l = lo[i], h = hi[i], old = val[i];
+			Remove(i);
+			if (key < h) Insert(i, key + 1, h, old);
+			Insert(i, key, key, v);
+			if (l < key) Insert(i, l, key - 1, old);
+			i = l < key ? i + 1 : i;
+		} else {
+			i = -i - 1;
+			Insert(i, key, key, v);
+		}
+		// merge with the neighbours if they continue the range
+		if (i + 1 < ranges && hi[i] + 1 == lo[i + 1] && val[i + 1] == v) {
+			hi[i] = hi[i + 1]; Remove(i + 1);
+		}
+		if (i > 0 && hi[i - 1] + 1 == lo[i] && val[i - 1] == v) {
+			hi[i - 1] = hi[i]; Remove(i);
+		}
+	}
+
+	private void Insert(int i, int l, int h, int v) {
+		if (ranges == lo.length) {
+			lo = java.util.Arrays.copyOf(lo, 2 * ranges);
+			hi = java.util.Arrays.copyOf(hi, 2 * ranges);
+			val = java.util.Arrays.copyOf(val, 2 * ranges);
+		}
+		System.arraycopy(lo, i, lo, i + 1, ranges - i);
+		System.arraycopy(hi, i, hi, i + 1, ranges - i);
+		System.arraycopy(val, i, val, i + 1, ranges - i);
+		lo[i] = l; hi[i] = h; val[i] = v;
+		ranges++;
+	}
+
+	private void Remove(int i) {
+		ranges--;
+		System.arraycopy(lo, i + 1, lo, i, ranges - i);
+		System.arraycopy(hi, i + 1, hi, i, ranges - i);
+		System.arraycopy(val, i + 1, val, i, ranges - i);
+	}
+}
+
+//-----------------------------------------------------------------------------------
+// Keywords  -- perfect hash of the literals, looked up directly on the token text
+//-----------------------------------------------------------------------------------
+class Keywords {
+	private final char[][] key; // literal per slot, null if the slot is empty
+	private final int[] kind;   // token kind per slot
+	private final int mask;     // number of slots - 1
+	private final int seed;     // multiplier that maps every literal to its own slot
+	private final boolean ignoreCase;
+
+	// literals maps the literal strings (already in scanner casing) to their kinds
+	Keywords(Map<String, Integer> literals, boolean ignoreCase) {
+		this.ignoreCase = ignoreCase;
+		int n = 4;
+		while (n < 2 * literals.size()) n *= 2;
+		for (;;) {
+			for (int s = 31; s < 31 + 2 * 1024; s += 2) {
+				String[] fill = Build(literals, n, s);
+				if (fill != null) {
+					key = new char[n][]; kind = new int[n];
+					for (int i = 0; i < n; i++) {
+						if (fill[i] != null) {
+							key[i] = fill[i].toCharArray();
+							kind[i] = literals.get(fill[i]);
+						}
+					}
+					mask = n - 1; seed = s;
+					return;
+				}
+			}
+			n *= 2; // no perfect seed for this size, try a sparser table
+		}
+	}
+
+	// assigns every literal to its slot; null if two literals collide
+	private String[] Build(Map<String, Integer> literals, int n, int s) {
+		String[] fill = new String[n];
+		for (String lit : literals.keySet()) {
+			char[] k = lit.toCharArray();
+			int i = Slot(Hash(k, k.length, s), n - 1);
+			if (fill[i] != null) return null;
+			fill[i] = lit;
+		}
+		return fill;
+	}
+
+	private int Hash(char[] s, int len, int m) {
+		int h = len;
+		if (ignoreCase) {
+			for (int i = 0; i < len; i++) h = h * m + Lower(s[i]);
+		} else {
+			for (int i = 0; i < len; i++) h = h * m + s[i];
+		}
+		return h;
+	}
+
+	private static int Slot(int h, int mask) {
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private static int Lower(char c) {
+		if (c < 128) return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+		return Character.toLowerCase(c);
+	}
+
+	// kind of the literal s[0 .. len-1], or -1 if it is no literal
+	public int Kind(char[] s, int len) {
+		int i = Slot(Hash(s, len, seed), mask);
+		char[] k = key[i];
+		if (k == null || k.length != len) return -1;
+		if (ignoreCase) {
+			for (int j = 0; j < len; j++) if (Lower(s[j]) != k[j]) return -1;
+		} else {
+			for (int j = 0; j < len; j++) if (s[j] != k[j]) return -1;
+		}
+		return kind[i];
 	}
 }
 
@@ -255,6 +889,7 @@ public class Scanner {
 	char valCh;       // current input character (for token.val)
 
 	public Buffer buffer; // scanner buffer
+	Stats stats;          // counters of the unit, null unless Stats.ON
 
 	Token t;           // current token
 	int ch;            // current input character
@@ -264,86 +899,135 @@ public class Scanner {
 	int line;          // line number of current character
 	int oldEols;       // EOLs that appeared in a comment;
 	static final StartStates start; // maps initial token character to start state
-	static final Map literals;      // maps literal strings to literal kinds
+	static final Keywords keywords; // the literals, looked up without creating a String
 
 	Token tokens;      // list of tokens already peeked (first token is a dummy)
 	Token pt;          // current peek token
+	Token reuse;       // token filled by NextToken instead of a new one (see Scan(TokenTable))
+	TokenRing ring;    // tokens scanned by another thread (see Pipeline), null if none
+	TokenTable batch;  // slot of ring whose tokens are being consumed
+	int batchIdx;      // next token in batch
+	static final int PIPE_SLOTS = 16;   // slots in ring
+	static final int PIPE_BATCH = 1024; // tokens per slot
+	TokenTable[] chunks; // tokens scanned in parallel (see Parallel), null if none
+	int chunk;         // index of batch in chunks
+	static final int PARALLEL_CHUNK = 1 << 20; // smallest part of a file scanned in parallel
 	
 	char[] tval = new char[16]; // token text used in NextToken(), dynamically enlarged
+	int[] tpos = new int[16];   // position of each character of tval
 	int tlen;          // length of current token
 
 
+	// the tables are built once and never changed afterwards, so scanners
+	// in different threads can share them
 	static {
 		start = new StartStates();
-		literals = new HashMap();
+		keywords = new Keywords(InitTables(start), !LiteralKey("A").equals("A"));
+	}
+
+	// fills start and returns the literals
+	private static Map<String, Integer> InitTables(StartStates start) {
+		Map<String, Integer> literals = new HashMap<String, Integer>();
 		for (int i = 36; i <= 36; ++i) start.set(i, 1);
 		for (int i = 95; i <= 95; ++i) start.set(i, 1);
 		for (int i = 97; i <= 122; ++i) start.set(i, 1);
-		for (int i = 48; i <= 57; ++i) start.set(i, 27);
-		start.set(39, 47); 
-		start.set(34, 14); 
-		start.set(58, 48); 
-		start.set(59, 15); 
-		start.set(44, 16); 
-		start.set(46, 49); 
-		start.set(64, 17); 
-		start.set(123, 18); 
-		start.set(91, 19); 
-		start.set(40, 20); 
-		start.set(42, 50); 
-		start.set(45, 21); 
-		start.set(43, 22); 
-		start.set(125, 23); 
-		start.set(93, 24); 
-		start.set(41, 25); 
-		start.set(126, 26); 
-		start.set(35, 46); 
+		for (int i = 48; i <= 57; ++i) start.set(i, 35);
+		start.set(39, 55); 
+		start.set(34, 21); 
+		start.set(58, 56); 
+		start.set(59, 22); 
+		start.set(44, 23); 
+		start.set(46, 57); 
+		start.set(64, 24); 
+		start.set(123, 25); 
+		start.set(91, 26); 
+		start.set(40, 27); 
+		start.set(42, 36); 
+		start.set(45, 28); 
+		start.set(43, 29); 
+		start.set(125, 30); 
+		start.set(93, 31); 
+		start.set(41, 32); 
+		start.set(126, 33); 
+		start.set(35, 54); 
 		start.set(Buffer.EOF, -1);
-		literals.put("subtype", new Integer(6));
-		literals.put("record", new Integer(7));
-		literals.put("range", new Integer(8));
-		literals.put("is", new Integer(9));
-		literals.put("loop", new Integer(10));
-		literals.put("while", new Integer(11));
-		literals.put("for", new Integer(12));
-		literals.put("begin", new Integer(13));
-		literals.put("end", new Integer(14));
-		literals.put("procedure", new Integer(15));
-		literals.put("function", new Integer(16));
-		literals.put("package", new Integer(17));
-		literals.put("use", new Integer(18));
-		literals.put("with", new Integer(19));
-		literals.put("of", new Integer(20));
-		literals.put("array", new Integer(21));
-		literals.put("integer", new Integer(22));
-		literals.put("string", new Integer(23));
-		literals.put("boolean", new Integer(24));
-		literals.put("float", new Integer(25));
-		literals.put("null", new Integer(26));
-		literals.put("character", new Integer(27));
-		literals.put("and", new Integer(37));
-		literals.put("not", new Integer(38));
-		literals.put("true", new Integer(49));
-		literals.put("false", new Integer(50));
-		literals.put("e", new Integer(51));
+		literals.put("subtype", 6);
+		literals.put("record", 7);
+		literals.put("range", 8);
+		literals.put("is", 9);
+		literals.put("loop", 10);
+		literals.put("while", 11);
+		literals.put("for", 12);
+		literals.put("begin", 13);
+		literals.put("end", 14);
+		literals.put("procedure", 15);
+		literals.put("function", 16);
+		literals.put("package", 17);
+		literals.put("use", 18);
+		literals.put("with", 19);
+		literals.put("of", 20);
+		literals.put("array", 21);
+		literals.put("integer", 22);
+		literals.put("string", 23);
+		literals.put("boolean", 24);
+		literals.put("float", 25);
+		literals.put("null", 26);
+		literals.put("character", 27);
+		literals.put("and", 37);
+		literals.put("not", 38);
+		literals.put("true", 46);
+		literals.put("false", 47);
+		literals.put("e", 51);
 
+		return literals;
 	}
 	
 	public Scanner (String fileName) {
-		buffer = new Buffer(fileName);
+		if (Stats.ON) stats = new Stats(fileName);
+		buffer = new Buffer(fileName, true, stats);
 		Init();
 	}
 	
 	public Scanner(InputStream s) {
-		buffer = new Buffer(s);
+		if (Stats.ON) stats = new Stats("-");
+		buffer = new Buffer(s, stats);
+		Init();
+	}
+	
+	// scans the characters of s, whose positions are char indices; note that
+	// new Scanner(string) takes the string for a file name, cast it to CharSequence
+	public Scanner(CharSequence s) {
+		if (Stats.ON) stats = new Stats("-");
+		buffer = new TextBuffer(s, stats);
+		Init();
+	}
+	
+	// scans the characters of s, which must not change while they are scanned
+	public Scanner(char[] s) {
+		if (Stats.ON) stats = new Stats("-");
+		buffer = new TextBuffer(s, stats);
+		Init();
+	}
+	
+	// scans the bytes of s but s[gap .. gapEnd-1] in place, like those of a file;
+	// after a change of s give it to buffer.Text and Restart the scanner
+	public Scanner(byte[] s, int gap, int gapEnd) {
+		if (Stats.ON) stats = new Stats("-");
+		buffer = new Buffer(s, gap, gapEnd, stats);
 		Init();
 	}
 	
 	void Init () {
 		pos = -1; line = 1; col = 0; charPos = -1;
 		oldEols = 0;
+		boolean text = buffer instanceof TextBuffer; // already characters
+		boolean utf8 = !text && buffer.Peek() != 0xEF && buffer.Utf8(); // a byte order mark decides alone
+		if (utf8) buffer = new UTF8Buffer(buffer); // UTF-8 without byte order mark
 		NextCh();
-		if (ch == 0xEF) { // check optional byte order mark for UTF-8
+		if (text && ch == 0xFEFF) { // byte order mark that was decoded with the text
+			col = 0; charPos = -1;
+			NextCh();
+		} else if (!text && !utf8 && ch == 0xEF) { // check optional byte order mark for UTF-8
 			NextCh(); int ch1 = ch;
 			NextCh(); int ch2 = ch;
 			if (ch1 != 0xBB || ch2 != 0xBF) {
@@ -378,8 +1062,10 @@ public class Scanner {
 			char[] newBuf = new char[2 * tval.length];
 			System.arraycopy(tval, 0, newBuf, 0, tval.length);
 			tval = newBuf;
+			tpos = java.util.Arrays.copyOf(tpos, tval.length);
 		}
 		if (ch != Buffer.EOF) {
+			tpos[tlen] = pos;
 			tval[tlen++] = valCh; 
 
 			NextCh();
@@ -389,6 +1075,7 @@ public class Scanner {
 	
 
 	boolean Comment0() {
+		if (Stats.ON) stats.comments++;
 		int level = 1, pos0 = pos, line0 = line, col0 = col, charPos0 = charPos;
 		NextCh();
 		if (ch == '-') {
@@ -402,31 +1089,36 @@ public class Scanner {
 				else NextCh();
 			}
 		} else {
+			if (Stats.ON) stats.backtracks++; // no comment after all
 			buffer.setPos(pos0); NextCh(); line = line0; col = col0; charPos = charPos0;
 		}
 		return false;
 	}
 
 
-	void CheckLiteral() {
-		String val = t.val;
+	// the key of val in keywords, i.e. val in the casing of the scanner
+	static String LiteralKey(String val) {
 		val = val.toLowerCase();
 
-		Object kind = literals.get(val);
-		if (kind != null) {
-			t.kind = ((Integer) kind).intValue();
-		}
+		return val;
+	}
+
+	void CheckLiteral() {
+		int kind = keywords.Kind(tval, tlen);
+		if (kind >= 0) t.kind = kind;
 	}
 
 	Token NextToken() {
+		buffer.Discard(pos);
 		while (ch == ' ' ||
 			ch == 10 || ch == 13
 		) NextCh();
 		if (ch == '-' && Comment0()) return NextToken();
 		int recKind = noSym;
 		int recEnd = pos;
-		t = new Token();
+		t = reuse != null ? reuse : new Token();
 		t.pos = pos; t.col = col; t.line = line; t.charPos = charPos;
+		// begin automaton (make SCANNER=table replaces it by tables, see ScanTable)
 		int state = start.state(ch);
 		tlen = 0; AddCh();
 
@@ -434,223 +1126,403 @@ public class Scanner {
 			switch (state) {
 				case -1: { t.kind = eofSym; break loop; } // NextCh already done 
 				case 0: {
-					if (recKind != noSym) {
-						tlen = recEnd - t.pos;
-						SetScannerBehindT();
-					}
+					if (recKind != noSym) SetScannerBehindT(recEnd);
 					t.kind = recKind; break loop;
 				} // NextCh already done
 				case 1:
 					recEnd = pos; recKind = 1;
 					if (ch == '$' || ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'z') {AddCh(); state = 1; break;}
-					else if (ch == '_') {AddCh(); state = 28; break;}
-					else {t.kind = 1; t.val = new String(tval, 0, tlen); CheckLiteral(); return t;}
+					else if (ch == '_') {AddCh(); state = 37; break;}
+					else {t.kind = 1; CheckLiteral(); break loop;}
 				case 2:
 					recEnd = pos; recKind = 2;
 					if (ch >= '0' && ch <= '9') {AddCh(); state = 2; break;}
-					else if (ch == '_') {AddCh(); state = 3; break;}
+					else if (ch == 'e') {AddCh(); state = 4; break;}
+					else if (ch == '#') {AddCh(); state = 7; break;}
+					else if (ch == '_') {AddCh(); state = 10; break;}
 					else {t.kind = 2; break loop;}
 				case 3:
-					if (ch >= '0' && ch <= '9') {AddCh(); state = 2; break;}
-					else {state = 0; break;}
+					recEnd = pos; recKind = 2;
+					if (ch == 'e') {AddCh(); state = 4; break;}
+					else {t.kind = 2; break loop;}
 				case 4:
-					if (ch >= '0' && ch <= '9') {AddCh(); state = 5; break;}
+					if (ch >= '0' && ch <= '9') {AddCh(); state = 6; break;}
+					else if (ch == '+' || ch == '-') {AddCh(); state = 5; break;}
 					else {state = 0; break;}
 				case 5:
-					recEnd = pos; recKind = 3;
-					if (ch >= '0' && ch <= '9') {AddCh(); state = 5; break;}
-					else {t.kind = 3; break loop;}
-				case 6:
-					if (ch == 39) {AddCh(); state = 13; break;}
+					if (ch >= '0' && ch <= '9') {AddCh(); state = 6; break;}
 					else {state = 0; break;}
+				case 6:
+					recEnd = pos; recKind = 2;
+					if (ch >= '0' && ch <= '9') {AddCh(); state = 6; break;}
+					else {t.kind = 2; break loop;}
 				case 7:
-					if (ch >= '0' && ch <= '3') {AddCh(); state = 29; break;}
-					else if (ch >= '4' && ch <= '7') {AddCh(); state = 12; break;}
-					else if (ch == '"' || ch == 39 || ch == 92 || ch == 'b' || ch == 'f' || ch == 'n' || ch == 'r' || ch == 't') {AddCh(); state = 6; break;}
-					else if (ch == 'u') {AddCh(); state = 8; break;}
+					if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 8; break;}
 					else {state = 0; break;}
 				case 8:
-					if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 9; break;}
-					else if (ch == 'u') {AddCh(); state = 8; break;}
+					if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 8; break;}
+					else if (ch == '#') {AddCh(); state = 3; break;}
+					else if (ch == '_') {AddCh(); state = 9; break;}
 					else {state = 0; break;}
 				case 9:
-					if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 10; break;}
+					if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 8; break;}
 					else {state = 0; break;}
 				case 10:
-					if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 11; break;}
+					if (ch >= '0' && ch <= '9') {AddCh(); state = 2; break;}
 					else {state = 0; break;}
 				case 11:
-					if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 6; break;}
+					if (ch >= '0' && ch <= '9') {AddCh(); state = 12; break;}
 					else {state = 0; break;}
 				case 12:
-					if (ch >= '0' && ch <= '7') {AddCh(); state = 6; break;}
-					else if (ch == 39) {AddCh(); state = 13; break;}
-					else {state = 0; break;}
+					recEnd = pos; recKind = 3;
+					if (ch >= '0' && ch <= '9') {AddCh(); state = 12; break;}
+					else {t.kind = 3; break loop;}
 				case 13:
-					{t.kind = 4; break loop;}
+					if (ch == 39) {AddCh(); state = 20; break;}
+					else {state = 0; break;}
 				case 14:
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch == '"') {AddCh(); state = 31; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
+					if (ch >= '0' && ch <= '3') {AddCh(); state = 38; break;}
+					else if (ch >= '4' && ch <= '7') {AddCh(); state = 19; break;}
+					else if (ch == '"' || ch == 39 || ch == 92 || ch == 'b' || ch == 'f' || ch == 'n' || ch == 'r' || ch == 't') {AddCh(); state = 13; break;}
+					else if (ch == 'u') {AddCh(); state = 15; break;}
 					else {state = 0; break;}
 				case 15:
-					{t.kind = 29; break loop;}
+					if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 16; break;}
+					else if (ch == 'u') {AddCh(); state = 15; break;}
+					else {state = 0; break;}
 				case 16:
-					{t.kind = 30; break loop;}
+					if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 17; break;}
+					else {state = 0; break;}
 				case 17:
-					{t.kind = 32; break loop;}
+					if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 18; break;}
+					else {state = 0; break;}
 				case 18:
-					{t.kind = 33; break loop;}
+					if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 13; break;}
+					else {state = 0; break;}
 				case 19:
-					{t.kind = 34; break loop;}
+					if (ch >= '0' && ch <= '7') {AddCh(); state = 13; break;}
+					else if (ch == 39) {AddCh(); state = 20; break;}
+					else {state = 0; break;}
 				case 20:
-					{t.kind = 35; break loop;}
+					{t.kind = 4; break loop;}
 				case 21:
-					{t.kind = 39; break loop;}
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch == '"') {AddCh(); state = 40; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
+					else {state = 0; break;}
 				case 22:
-					{t.kind = 40; break loop;}
+					{t.kind = 29; break loop;}
 				case 23:
-					{t.kind = 41; break loop;}
+					{t.kind = 30; break loop;}
 				case 24:
-					{t.kind = 42; break loop;}
+					{t.kind = 32; break loop;}
 				case 25:
-					{t.kind = 43; break loop;}
+					{t.kind = 33; break loop;}
 				case 26:
-					{t.kind = 44; break loop;}
+					{t.kind = 34; break loop;}
 				case 27:
-					recEnd = pos; recKind = 2;
-					if (ch >= '0' && ch <= '9') {AddCh(); state = 27; break;}
-					else if (ch == '_') {AddCh(); state = 3; break;}
-					else if (ch == '.') {AddCh(); state = 4; break;}
-					else {t.kind = 2; break loop;}
+					{t.kind = 35; break loop;}
 				case 28:
-					recEnd = pos; recKind = 1;
-					if (ch == '$' || ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'z') {AddCh(); state = 1; break;}
-					else if (ch == '_') {AddCh(); state = 28; break;}
-					else {t.kind = 1; t.val = new String(tval, 0, tlen); CheckLiteral(); return t;}
+					{t.kind = 39; break loop;}
 				case 29:
-					if (ch >= '0' && ch <= '7') {AddCh(); state = 30; break;}
-					else if (ch == 39) {AddCh(); state = 13; break;}
-					else {state = 0; break;}
+					{t.kind = 40; break loop;}
 				case 30:
-					if (ch >= '0' && ch <= '7') {AddCh(); state = 6; break;}
-					else if (ch == 39) {AddCh(); state = 13; break;}
-					else {state = 0; break;}
+					{t.kind = 41; break loop;}
 				case 31:
-					recEnd = pos; recKind = 5;
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch == '"') {AddCh(); state = 31; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
-					else {t.kind = 5; break loop;}
+					{t.kind = 42; break loop;}
 				case 32:
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '/' || ch >= '8' && ch <= '[' || ch >= ']' && ch <= 't' || ch >= 'v' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch >= '0' && ch <= '3') {AddCh(); state = 34; break;}
-					else if (ch >= '4' && ch <= '7') {AddCh(); state = 35; break;}
-					else if (ch == '"') {AddCh(); state = 31; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
-					else if (ch == 'u') {AddCh(); state = 36; break;}
-					else {state = 0; break;}
+					{t.kind = 43; break loop;}
 				case 33:
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch == '"') {AddCh(); state = 37; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
-					else {state = 0; break;}
+					{t.kind = 44; break loop;}
 				case 34:
-					if (ch >= '0' && ch <= '7') {AddCh(); state = 33; break;}
-					else if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '/' || ch >= '8' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch == '"') {AddCh(); state = 38; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
-					else {state = 0; break;}
+					{t.kind = 45; break loop;}
 				case 35:
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch == '"') {AddCh(); state = 39; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
-					else {state = 0; break;}
+					recEnd = pos; recKind = 2;
+					if (ch >= '0' && ch <= '9') {AddCh(); state = 35; break;}
+					else if (ch == 'e') {AddCh(); state = 4; break;}
+					else if (ch == '#') {AddCh(); state = 7; break;}
+					else if (ch == '_') {AddCh(); state = 10; break;}
+					else if (ch == '.') {AddCh(); state = 11; break;}
+					else {t.kind = 2; break loop;}
 				case 36:
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '/' || ch >= ':' && ch <= '[' || ch >= ']' && ch <= '`' || ch >= 'g' && ch <= 't' || ch >= 'v' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 40; break;}
-					else if (ch == '"') {AddCh(); state = 31; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
-					else if (ch == 'u') {AddCh(); state = 36; break;}
-					else {state = 0; break;}
+					recEnd = pos; recKind = 36;
+					if (ch == '*') {AddCh(); state = 34; break;}
+					else {t.kind = 36; break loop;}
 				case 37:
-					recEnd = pos; recKind = 5;
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch == '"') {AddCh(); state = 31; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
-					else {t.kind = 5; break loop;}
+					recEnd = pos; recKind = 1;
+					if (ch == '$' || ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'z') {AddCh(); state = 1; break;}
+					else if (ch == '_') {AddCh(); state = 37; break;}
+					else {t.kind = 1; CheckLiteral(); break loop;}
 				case 38:
-					recEnd = pos; recKind = 5;
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch == '"') {AddCh(); state = 31; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
-					else {t.kind = 5; break loop;}
+					if (ch >= '0' && ch <= '7') {AddCh(); state = 39; break;}
+					else if (ch == 39) {AddCh(); state = 20; break;}
+					else {state = 0; break;}
 				case 39:
+					if (ch >= '0' && ch <= '7') {AddCh(); state = 13; break;}
+					else if (ch == 39) {AddCh(); state = 20; break;}
+					else {state = 0; break;}
+				case 40:
 					recEnd = pos; recKind = 5;
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch == '"') {AddCh(); state = 31; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch == '"') {AddCh(); state = 40; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
 					else {t.kind = 5; break loop;}
-				case 40:
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '/' || ch >= ':' && ch <= '[' || ch >= ']' && ch <= '`' || ch >= 'g' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 41; break;}
-					else if (ch == '"') {AddCh(); state = 31; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
-					else {state = 0; break;}
 				case 41:
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '/' || ch >= ':' && ch <= '[' || ch >= ']' && ch <= '`' || ch >= 'g' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 42; break;}
-					else if (ch == '"') {AddCh(); state = 31; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '/' || ch >= '8' && ch <= '[' || ch >= ']' && ch <= 't' || ch >= 'v' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch >= '0' && ch <= '3') {AddCh(); state = 43; break;}
+					else if (ch >= '4' && ch <= '7') {AddCh(); state = 44; break;}
+					else if (ch == '"') {AddCh(); state = 40; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
+					else if (ch == 'u') {AddCh(); state = 45; break;}
 					else {state = 0; break;}
 				case 42:
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 14; break;}
-					else if (ch == '"') {AddCh(); state = 31; break;}
-					else if (ch == 92) {AddCh(); state = 32; break;}
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch == '"') {AddCh(); state = 46; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
 					else {state = 0; break;}
 				case 43:
-					{t.kind = 45; break loop;}
+					if (ch >= '0' && ch <= '7') {AddCh(); state = 42; break;}
+					else if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '/' || ch >= '8' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch == '"') {AddCh(); state = 47; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
+					else {state = 0; break;}
 				case 44:
-					{t.kind = 47; break loop;}
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch == '"') {AddCh(); state = 48; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
+					else {state = 0; break;}
 				case 45:
-					{t.kind = 48; break loop;}
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '/' || ch >= ':' && ch <= '[' || ch >= ']' && ch <= '`' || ch >= 'g' && ch <= 't' || ch >= 'v' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 49; break;}
+					else if (ch == '"') {AddCh(); state = 40; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
+					else if (ch == 'u') {AddCh(); state = 45; break;}
+					else {state = 0; break;}
 				case 46:
-					{t.kind = 52; break loop;}
+					recEnd = pos; recKind = 5;
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch == '"') {AddCh(); state = 40; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
+					else {t.kind = 5; break loop;}
 				case 47:
-					recEnd = pos; recKind = 46;
-					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '&' || ch >= '(' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 6; break;}
-					else if (ch == 92) {AddCh(); state = 7; break;}
-					else {t.kind = 46; break loop;}
+					recEnd = pos; recKind = 5;
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch == '"') {AddCh(); state = 40; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
+					else {t.kind = 5; break loop;}
 				case 48:
+					recEnd = pos; recKind = 5;
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch == '"') {AddCh(); state = 40; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
+					else {t.kind = 5; break loop;}
+				case 49:
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '/' || ch >= ':' && ch <= '[' || ch >= ']' && ch <= '`' || ch >= 'g' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 50; break;}
+					else if (ch == '"') {AddCh(); state = 40; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
+					else {state = 0; break;}
+				case 50:
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '/' || ch >= ':' && ch <= '[' || ch >= ']' && ch <= '`' || ch >= 'g' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f') {AddCh(); state = 51; break;}
+					else if (ch == '"') {AddCh(); state = 40; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
+					else {state = 0; break;}
+				case 51:
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '!' || ch >= '#' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 21; break;}
+					else if (ch == '"') {AddCh(); state = 40; break;}
+					else if (ch == 92) {AddCh(); state = 41; break;}
+					else {state = 0; break;}
+				case 52:
+					{t.kind = 48; break loop;}
+				case 53:
+					{t.kind = 50; break loop;}
+				case 54:
+					{t.kind = 52; break loop;}
+				case 55:
+					recEnd = pos; recKind = 49;
+					if (ch <= 9 || ch >= 11 && ch <= 12 || ch >= 14 && ch <= '&' || ch >= '(' && ch <= '[' || ch >= ']' && ch <= 65535) {AddCh(); state = 13; break;}
+					else if (ch == 92) {AddCh(); state = 14; break;}
+					else {t.kind = 49; break loop;}
+				case 56:
 					recEnd = pos; recKind = 28;
-					if (ch == '=') {AddCh(); state = 43; break;}
+					if (ch == '=') {AddCh(); state = 52; break;}
 					else {t.kind = 28; break loop;}
-				case 49:
+				case 57:
 					recEnd = pos; recKind = 31;
-					if (ch == '.') {AddCh(); state = 44; break;}
+					if (ch == '.') {AddCh(); state = 53; break;}
 					else {t.kind = 31; break loop;}
-				case 50:
-					recEnd = pos; recKind = 36;
-					if (ch == '*') {AddCh(); state = 45; break;}
-					else {t.kind = 36; break loop;}
 
 			}
 		}
-		t.val = new String(tval, 0, tlen);
+		// end automaton
+		if (reuse == null) t.val = new String(tval, 0, tlen);
+		if (Stats.ON) stats.tokens[t.kind]++; // after a comment the call that follows it counts the token
 		return t;
 	}
 	
-	private void SetScannerBehindT() {
-		buffer.setPos(t.pos);
-		NextCh();
+	// the token ends before position recEnd, but more characters were scanned; they
+	// are in tval (with their positions in tpos), so the token is not scanned again:
+	// line and column are counted on tval and only the character at recEnd is read again
+	private void SetScannerBehindT(int recEnd) {
+		if (Stats.ON) stats.behindT++;
+		int n = 1;
+		while (n < tlen && tpos[n] != recEnd) n++;
 		line = t.line; col = t.col; charPos = t.charPos;
-		for (int i = 0; i < tlen; i++) NextCh();
+		for (int i = 1; i < n; i++) { // as NextCh counts them
+			col++; charPos++;
+			if (tval[i] == EOL) { line++; col = 0; }
+		}
+		tlen = n;
+		buffer.setPos(recEnd);
+		NextCh();
 	}
 	
+	// scan on another thread from now on, the tokens are handed over in batches;
+	// call before the first token is scanned
+	public void Pipeline () {
+		if (ring != null || chunks != null) return;
+		final TokenRing r = new TokenRing(PIPE_SLOTS);
+		ring = r;
+		Thread producer = new Thread(() -> Produce(r), "Scanner");
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	// stop the scanning thread, e.g. if parsing ends before EOF
+	public void StopPipeline () {
+		if (ring != null) ring.Close();
+	}
+
+	// scan the whole file now, in chunks on up to threads threads; the tokens are then
+	// handed out as if pipelined. No token and no comment contains a line break, so
+	// the scanner is in its start state at the start of every line and chunks that
+	// begin at line starts can be scanned independently. The lines and character
+	// positions of a chunk are counted from its start and corrected when all chunks
+	// are done. Call before the first token is scanned; files that are not mapped or
+	// are too small for two chunks are scanned as usual
+	public void Parallel (int threads) {
+		int len = buffer.MappedLength();
+		if (ring != null || chunks != null || ch == Buffer.EOF || len < 0) return;
+		int n = Math.min(threads, (len - pos) / PARALLEL_CHUNK);
+		if (n < 2) return;
+		List<Integer> bounds = new ArrayList<Integer>(); // chunk i is bounds[i] .. bounds[i+1]-1
+		bounds.add(pos);
+		for (int i = 1; i <= n; i++) {
+			int b = i == n ? len : buffer.NextLine(pos + (int) ((long) (len - pos) * i / n));
+			if (b > bounds.get(bounds.size() - 1)) bounds.add(b);
+		}
+		Scanner[] parts = new Scanner[bounds.size() - 1];
+		TokenTable[] tabs = new TokenTable[parts.length];
+		ForkJoinPool pool = new ForkJoinPool(parts.length);
+		try {
+			List<Future<TokenTable>> jobs = new ArrayList<Future<TokenTable>>();
+			for (int i = 0; i < parts.length; i++) {
+				final Scanner s = parts[i] = new Scanner(this, bounds.get(i), bounds.get(i + 1));
+				jobs.add(pool.submit(() -> s.ScanAll()));
+			}
+			for (int i = 0; i < parts.length; i++) tabs[i] = jobs.get(i).get();
+		} catch (InterruptedException e) {
+			throw new FatalError("scanning interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof FatalError) throw (FatalError) e.getCause();
+			throw new FatalError("could not scan " + e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		// the EOF that ends a chunk (its line and charPos are those after the chunk)
+		// is dropped unless it is the last one; empty chunks are left out
+		List<TokenTable> list = new ArrayList<TokenTable>();
+		int lines = 0, chars = 0;
+		for (int i = 0; i < tabs.length; i++) {
+			TokenTable tab = tabs[i];
+			int eof = tab.count - 1;
+			int l = tab.line[eof] - 1, c = tab.charPos[eof];
+			if (i < tabs.length - 1) tab.count--;
+			tab.Shift(lines, chars);
+			lines += l; chars += c;
+			if (tab.count > 0) list.add(tab);
+			if (Stats.ON) {
+				stats.Add(parts[i].stats);
+				if (i < tabs.length - 1) stats.tokens[eofSym]--;
+			}
+		}
+		chunks = list.toArray(new TokenTable[0]);
+		batch = chunks[0]; batchIdx = 0; chunk = 0;
+	}
+
+	// a scanner for the bytes start .. end-1 of the file of s, which begin a line
+	private Scanner (Scanner s, int start, int end) {
+		if (Stats.ON) stats = new Stats(s.stats.file);
+		Buffer b = s.buffer.Slice(start, end, stats);
+		buffer = s.buffer instanceof UTF8Buffer ? new UTF8Buffer(b) : b;
+		pos = -1; line = 1; col = 0; charPos = -1;
+		oldEols = 0;
+		NextCh();
+	}
+
+	// all tokens up to EOF, which is the last one
+	private TokenTable ScanAll () {
+		TokenTable tab = new TokenTable();
+		int i;
+		do i = Scan(tab); while (tab.kind[i] != eofSym); // Scan may grow tab.kind
+		return tab;
+	}
+
+	// runs on the scanning thread, the only one that touches the buffer from now on
+	private void Produce (TokenRing r) {
+		try {
+			reuse = new Token();
+			int kind;
+			do {
+				TokenTable b = r.Reserve();
+				if (b == null) return;
+				b.Clear();
+				do {
+					Token x = NextToken();
+					kind = x.kind;
+					b.Add(x, tval, tlen);
+				} while (kind != eofSym && b.count < PIPE_BATCH);
+				r.Publish();
+			} while (kind != eofSym);
+		} catch (Throwable e) {
+			r.Fail(e);
+		}
+	}
+
+	// the slot of ring (or the chunk) that holds the next token; after the last batch
+	// EOF is repeated
+	private TokenTable Batch () {
+		if (batch == null) {
+			batch = ring.Take(); batchIdx = 0;
+		} else if (batchIdx == batch.count) {
+			if (batch.kind[batchIdx - 1] == eofSym) batchIdx--;
+			else if (chunks != null) {
+				batch = chunks[++chunk]; batchIdx = 0;
+			} else {
+				ring.Release();
+				batch = ring.Take(); batchIdx = 0;
+			}
+		}
+		return batch;
+	}
+
+	// the next token, scanned here or taken from ring or chunks
+	private Token Next () {
+		if (ring == null && chunks == null) {
+			return NextToken();
+		}
+		TokenTable b = Batch();
+		Token x = new Token();
+		b.Load(batchIdx, x);
+		x.val = b.Val(batchIdx++);
+		return x;
+	}
+
 	// get the next token (possibly a token already seen during peeking)
 	public Token Scan () {
 		if (tokens.next == null) {
-			return NextToken();
+			return Next();
 		} else {
 			pt = tokens = tokens.next;
 			return tokens;
@@ -661,7 +1533,7 @@ public class Scanner {
 	public Token Peek () {
 		do {
 			if (pt.next == null) {
-				pt.next = NextToken();
+				pt.next = Next();
 			}
 			pt = pt.next;
 		} while (pt.kind > maxT); // skip pragmas
@@ -669,6 +1541,30 @@ public class Scanner {
 		return pt;
 	}
 
+	// continue scanning at byte position pos, which is at charPos, line and col
+	// (the start of a token that was scanned before)
+	public void Restart (int pos, int charPos, int line, int col) {
+		if (ring != null || chunks != null) throw new FatalError("Cannot restart a pipelined scanner");
+		buffer.Discard(pos);
+		buffer.setPos(pos);
+		this.line = line; this.col = col - 1; this.charPos = charPos - 1;
+		oldEols = 0;
+		NextCh();
+		pt = tokens = new Token();
+	}
+
+	// scan the next token into tab without creating a Token object for it,
+	// returns its index in tab; don't mix with Scan() and Peek()
+	public int Scan (TokenTable tab) {
+		if (ring != null || chunks != null) {
+			TokenTable b = Batch();
+			return tab.AddFrom(b, batchIdx++);
+		}
+		if (reuse == null) reuse = new Token();
+		Token x = NextToken();
+		return tab.Add(x, tval, tlen);
+	}
+
 	// make sure that peeking starts at current scan position
 	public void ResetPeek () { pt = tokens; }
 
@@ -0,0 +1,205 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+//-----------------------------------------------------------------------------------
+// Stats  -- counters and timers of scanning and parsing, off unless asked for
+//-----------------------------------------------------------------------------------
+// java -Dadababy.stats=<file> ... counts per unit what the buffer, scanner and parser
+// do and writes the totals and the units as JSON to file at exit (to standard error
+// if the property is empty). ON is a constant, so without the property every
+// "if (Stats.ON)" is removed by the JIT and nothing is counted or timed.
+//
+// A unit has a Stats of its own, shared by its buffer, scanner and parser (in a
+// pipelined scanner the buffer and scanner counters are written by the scanning
+// thread; the chunks of a parallel scan count on their own and are added to it).
+// Parser.Parse finishes it: it is added to the totals and committed as JFR events
+// adababy.Unit and adababy.TokenKind, which a recording picks up
+// (java -XX:StartFlightRecording ...). Units replayed from a ParseCache and partial
+// parses of Incremental are not counted. Only the last adababy.stats.units units
+// (default 1000) are kept for the JSON, so a CompileServer does not keep all it has
+// compiled; the totals and the events cover every unit.
+class Stats {
+	static final String OUT = System.getProperty("adababy.stats");
+	static final boolean ON = OUT != null;
+	static final int KEEP = Integer.getInteger("adababy.stats.units", 1000); // units kept for the JSON
+
+	public final String file;   // source of the unit, "-" for a stream
+	public long bytes;          // bytes brought into memory by Buffer (mapped, read or streamed)
+	public int swaps;           // windows of the file read by Buffer.setPos
+	public final int[] tokens = new int[Scanner.noSym + 1]; // tokens per kind from NextToken
+	public int comments;        // calls of Comment0
+	public int backtracks;      // calls of Comment0 that found no comment and reset the scanner
+	public int behindT;         // calls of SetScannerBehindT
+	public int gets;            // calls of Parser.Get
+	public int skipped;         // tokens skipped by ExpectWeak and WeakSeparator
+	public long scan, fold, list, total; // time in ns: scanning (waiting for the scanning thread
+	                            // if pipelined), Fold.Run, Ast.List, Parser.Parse as a whole
+
+	private final UnitEvent event;
+
+	private static final Stats sum = new Stats();
+	private static final ArrayDeque<Stats> units = new ArrayDeque<Stats>(); // the last KEEP units
+	private static int count;   // units finished
+
+	static {
+		if (ON) Runtime.getRuntime().addShutdownHook(new Thread(Stats::Report, "Stats"));
+	}
+
+	private Stats() { // the totals
+		file = "";
+		event = null;
+	}
+
+	public Stats(String file) {
+		this.file = file;
+		event = new UnitEvent();
+		event.begin();
+	}
+
+	// System.nanoTime() if counting, 0 otherwise
+	static long Now() {
+		return ON ? System.nanoTime() : 0;
+	}
+
+	// the unit took total ns; adds it to the totals and commits its events
+	public void Finish(long total) {
+		this.total = total;
+		synchronized (units) {
+			count++;
+			if (units.size() >= KEEP) units.pollFirst();
+			if (KEEP > 0) units.addLast(this);
+			sum.Add(this);
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.file = file; event.bytes = bytes; event.tokens = Tokens(); event.swaps = swaps;
+			event.comments = comments; event.backtracks = backtracks; event.behindT = behindT;
+			event.gets = gets; event.skipped = skipped;
+			event.scan = scan; event.fold = fold; event.list = list;
+			event.commit();
+		}
+		for (int k = 0; k < tokens.length; k++) {
+			if (tokens[k] == 0) continue;
+			KindEvent e = new KindEvent();
+			if (!e.shouldCommit()) break;
+			e.file = file; e.kind = KindName(k); e.count = tokens[k];
+			e.commit();
+		}
+	}
+
+	// adds the counters of s, e.g. of a chunk scanned in parallel
+	void Add(Stats s) {
+		bytes += s.bytes; swaps += s.swaps;
+		for (int k = 0; k < tokens.length; k++) tokens[k] += s.tokens[k];
+		comments += s.comments; backtracks += s.backtracks; behindT += s.behindT;
+		gets += s.gets; skipped += s.skipped;
+		scan += s.scan; fold += s.fold; list += s.list; total += s.total;
+	}
+
+	int Tokens() {
+		int n = 0;
+		for (int c : tokens) n += c;
+		return n;
+	}
+
+	static String KindName(int k) {
+		return k < Parser.tokenNames.length ? Parser.tokenNames[k] : "kind " + k;
+	}
+
+	//---------- JSON ----------
+
+	// the totals and the units so far as JSON; dropped is the number of units that
+	// are counted in the totals but not listed in files
+	static void Write(Appendable out) throws IOException {
+		synchronized (units) {
+			out.append("{\n  \"units\": ").append(String.valueOf(count));
+			out.append(",\n  \"dropped\": ").append(String.valueOf(count - units.size())).append(",\n  \"total\": ");
+			sum.Write(out, "  ");
+			out.append(",\n  \"files\": [");
+			boolean first = true;
+			for (Stats u : units) {
+				out.append(first ? "\n    " : ",\n    ");
+				u.Write(out, "    ");
+				first = false;
+			}
+			out.append(units.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+		}
+	}
+
+	private void Write(Appendable out, String indent) throws IOException {
+		String in = indent + "  ";
+		out.append("{\n");
+		if (this != sum) out.append(in).append("\"file\": ").append(Quote(file)).append(",\n");
+		out.append(in).append("\"bytes\": ").append(String.valueOf(bytes)).append(",\n");
+		out.append(in).append("\"swaps\": ").append(String.valueOf(swaps)).append(",\n");
+		out.append(in).append("\"comments\": ").append(String.valueOf(comments)).append(",\n");
+		out.append(in).append("\"backtracks\": ").append(String.valueOf(backtracks)).append(",\n");
+		out.append(in).append("\"behindT\": ").append(String.valueOf(behindT)).append(",\n");
+		out.append(in).append("\"gets\": ").append(String.valueOf(gets)).append(",\n");
+		out.append(in).append("\"skipped\": ").append(String.valueOf(skipped)).append(",\n");
+		out.append(in).append("\"nanos\": {\"scan\": ").append(String.valueOf(scan))
+			.append(", \"parse\": ").append(String.valueOf(total - scan - fold - list))
+			.append(", \"fold\": ").append(String.valueOf(fold))
+			.append(", \"list\": ").append(String.valueOf(list))
+			.append(", \"total\": ").append(String.valueOf(total)).append("},\n");
+		out.append(in).append("\"tokens\": {\"all\": ").append(String.valueOf(Tokens()));
+		for (int k = 0; k < tokens.length; k++) {
+			if (tokens[k] > 0) out.append(", ").append(Quote(KindName(k))).append(": ").append(String.valueOf(tokens[k]));
+		}
+		out.append("}\n").append(indent).append("}");
+	}
+
+	static String Quote(String s) {
+		StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') b.append('\\').append(c);
+			else if (c < ' ') b.append(String.format("\\u%04x", (int) c));
+			else b.append(c);
+		}
+		return b.append('"').toString();
+	}
+
+	// at exit: the JSON to the file named by adababy.stats
+	private static void Report() {
+		try (Writer w = OUT.isEmpty() ? new OutputStreamWriter(System.err) : new FileWriter(OUT)) {
+			Write(w);
+		} catch (IOException e) {
+			System.err.println("Cannot write statistics to " + OUT + ": " + e.getMessage());
+		}
+	}
+
+	//---------- JFR events ----------
+
+	@Name("adababy.Unit") @Label("Unit") @Category("AdaBaby")
+	static class UnitEvent extends Event {
+		@Label("File") String file;
+		@Label("Bytes") @DataAmount long bytes;
+		@Label("Tokens") int tokens;
+		@Label("Buffer Swaps") int swaps;
+		@Label("Comments") int comments;
+		@Label("Comment Backtracks") int backtracks;
+		@Label("SetScannerBehindT Calls") int behindT;
+		@Label("Get Calls") int gets;
+		@Label("Tokens Skipped") int skipped;
+		@Label("Scan Time") @Timespan long scan;
+		@Label("Fold Time") @Timespan long fold;
+		@Label("List Time") @Timespan long list;
+	}
+
+	@Name("adababy.TokenKind") @Label("Token Kind") @Category("AdaBaby")
+	static class KindEvent extends Event {
+		@Label("File") String file;
+		@Label("Kind") String kind;
+		@Label("Count") int count;
+	}
+}
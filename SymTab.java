@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------------
+// SymTab  -- names and the symbols declared for them in nested scopes
+//-----------------------------------------------------------------------------------
+// Every distinct identifier is interned once and gets a dense name id; its text is
+// copied out of the token table only the first time it is seen, and names are
+// compared without regard to case, as in Ada. Because name ids are dense, the
+// symbol visible for a name is found by indexing an array with the id. A symbol
+// that hides one of an outer scope remembers it, and Pop makes it visible again.
+class SymTab {
+	private static final int MIN_LENGTH = 64;
+
+	// interned names
+	private int[] slot;        // open addressing by hash: name id + 1, 0 if free
+	private int[] nameStart;   // start of the name in text
+	private int[] nameLen;     // length of the name
+	private int[] nameHash;    // hash of the name
+	private char[] text;       // all names, folded to lower case
+	private int textLen;       // used length of text
+	public int names;          // number of interned names
+
+	// symbols
+	public int[] symName;      // name id of the symbol
+	public int[] symTok;       // index of the declaring token in the token table
+	public int[] symLevel;     // scope level of the declaration, 0 is outermost
+	private int[] symHidden;   // symbol of the same name that this one hides, -1 if none
+	public int count;          // number of symbols
+	private int[] visible;     // name id -> visible symbol, -1 if none
+
+	private int[] scopeStart = new int[8]; // first symbol of each open scope
+	public int level;          // level of the innermost scope
+
+	private char[] key = new char[32]; // the name being looked up
+
+	public SymTab() {
+		slot = new int[2 * MIN_LENGTH];
+		nameStart = new int[MIN_LENGTH]; nameLen = new int[MIN_LENGTH]; nameHash = new int[MIN_LENGTH];
+		visible = new int[MIN_LENGTH];
+		text = new char[MIN_LENGTH * 8];
+		symName = new int[MIN_LENGTH]; symTok = new int[MIN_LENGTH];
+		symLevel = new int[MIN_LENGTH]; symHidden = new int[MIN_LENGTH];
+	}
+
+	// forget all names and symbols but keep the arrays for the next unit
+	public void Clear() {
+		Arrays.fill(slot, 0);
+		names = 0; textLen = 0; count = 0; level = 0;
+	}
+
+	//---------- scopes ----------
+
+	public void Push() {
+		if (level + 1 == scopeStart.length) scopeStart = Arrays.copyOf(scopeStart, 2 * scopeStart.length);
+		scopeStart[++level] = count;
+	}
+
+	// close the innermost scope, the symbols declared in it are dropped
+	public void Pop() {
+		if (level == 0) throw new FatalError("scope stack underflow");
+		int first = scopeStart[level--];
+		while (count > first) {
+			count--;
+			visible[symName[count]] = symHidden[count];
+		}
+	}
+
+	//---------- symbols ----------
+
+	// declare the identifier tok of tokens in the innermost scope;
+	// returns the new symbol, or -1 if the name is already declared in that scope
+	public int Declare(TokenTable tokens, int tok) {
+		int name = Intern(tokens, tok, true);
+		int old = visible[name];
+		if (old >= 0 && symLevel[old] == level) return -1;
+		if (count == symName.length) GrowSymbols();
+		int s = count++;
+		symName[s] = name; symTok[s] = tok; symLevel[s] = level; symHidden[s] = old;
+		visible[name] = s;
+		return s;
+	}
+
+	// the symbol visible for the identifier tok of tokens, -1 if it is not declared
+	public int Lookup(TokenTable tokens, int tok) {
+		int name = Intern(tokens, tok, false);
+		return name < 0 ? -1 : visible[name];
+	}
+
+	public String Name(int name) {
+		return new String(text, nameStart[name], nameLen[name]);
+	}
+
+	//---------- names ----------
+
+	// name id of the identifier tok of tokens; if it has not been seen so far it
+	// is added when add is true, otherwise -1 is returned
+	private int Intern(TokenTable tokens, int tok, boolean add) {
+		int len = tokens.len[tok];
+		if (len > key.length) key = new char[Math.max(2 * key.length, len)];
+		tokens.GetChars(tok, key, 0);
+		int h = 0;
+		for (int i = 0; i < len; i++) {
+			char c = key[i];
+			if (c >= 'A' && c <= 'Z') key[i] = c = (char) (c + ('a' - 'A'));
+			h = 31 * h + c;
+		}
+		int mask = slot.length - 1;
+		for (int i = h & mask; ; i = (i + 1) & mask) {
+			int n = slot[i] - 1;
+			if (n < 0) break;
+			if (nameHash[n] == h && Same(n, len)) return n;
+		}
+		if (!add) return -1;
+		if (names == nameStart.length) GrowNames();
+		if (2 * (names + 1) > slot.length) Rehash(2 * slot.length);
+		if (textLen + len > text.length) text = Arrays.copyOf(text, Math.max(2 * text.length, textLen + len));
+		int n = names++;
+		System.arraycopy(key, 0, text, textLen, len);
+		nameStart[n] = textLen; nameLen[n] = len; nameHash[n] = h;
+		textLen += len;
+		visible[n] = -1;
+		Place(n);
+		return n;
+	}
+
+	private boolean Same(int n, int len) {
+		if (nameLen[n] != len) return false;
+		for (int i = 0, j = nameStart[n]; i < len; i++, j++) if (text[j] != key[i]) return false;
+		return true;
+	}
+
+	private void Place(int n) {
+		int mask = slot.length - 1, i = nameHash[n] & mask;
+		while (slot[i] != 0) i = (i + 1) & mask;
+		slot[i] = n + 1;
+	}
+
+	private void Rehash(int length) {
+		slot = new int[length];
+		for (int n = 0; n < names; n++) Place(n);
+	}
+
+	private void GrowNames() {
+		int n = 2 * nameStart.length;
+		nameStart = Arrays.copyOf(nameStart, n); nameLen = Arrays.copyOf(nameLen, n);
+		nameHash = Arrays.copyOf(nameHash, n); visible = Arrays.copyOf(visible, n);
+	}
+
+	private void GrowSymbols() {
+		int n = 2 * symName.length;
+		symName = Arrays.copyOf(symName, n); symTok = Arrays.copyOf(symTok, n);
+		symLevel = Arrays.copyOf(symLevel, n); symHidden = Arrays.copyOf(symHidden, n);
+	}
+}
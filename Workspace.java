@@ -0,0 +1,19 @@
+//-----------------------------------------------------------------------------------
+// Workspace  -- the token table, tree, symbol table and fold a parser fills
+//-----------------------------------------------------------------------------------
+// A parser created with a workspace uses its objects instead of new ones, so the
+// arrays that have grown while compiling one unit are reused by the next.
+class Workspace {
+	TokenTable tokens;
+	Ast ast;
+	SymTab syms;
+	Fold fold;
+
+	public Workspace() {
+		this(new TokenTable(), new Ast(), new SymTab(), new Fold());
+	}
+
+	public Workspace(TokenTable tokens, Ast ast, SymTab syms, Fold fold) {
+		this.tokens = tokens; this.ast = ast; this.syms = syms; this.fold = fold;
+	}
+}
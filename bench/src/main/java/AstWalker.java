@@ -0,0 +1,111 @@
+import java.util.HashMap;
+
+//-----------------------------------------------------------------------------------
+// AstWalker  -- runs a unit directly on its tree, the baseline for Interp
+//-----------------------------------------------------------------------------------
+// Variables are looked up by name in a map for every use and hold boxed values;
+// range constraints and index bounds are evaluated again each time they are needed.
+public class AstWalker {
+	private Ast ast;
+	private TokenTable tokens;
+	private final HashMap<String, Object> vars = new HashMap<>();      // Integer or int[]
+	private final HashMap<String, int[]> bounds = new HashMap<>();     // range / index bounds by name
+	private final HashMap<String, Integer> decl = new HashMap<>();     // declaration node by name
+
+	// run the unit ast.root, the values of its variables are returned by name
+	public HashMap<String, Object> Run(Ast ast, TokenTable tokens) {
+		this.ast = ast; this.tokens = tokens;
+		vars.clear(); bounds.clear(); decl.clear();
+		int root = ast.root, n = ast.childCount[root], c = 1;
+		for (; c < n && ast.kind[ast.Child(root, c)] == Ast.DECL; c++) Decl(ast.Child(root, c));
+		for (; c < n - 1; c++) Stmt(ast.Child(root, c));
+		return vars;
+	}
+
+	private void Decl(int d) {
+		int n = ast.childCount[d], i = 0;
+		while (ast.kind[ast.Child(d, i)] == Ast.NAME) i++;
+		int names = i, type = ast.Child(d, i++), range = -1, init = -1;
+		if (i < n && ast.kind[ast.Child(d, i)] == Ast.RANGE) range = ast.Child(d, i++);
+		if (i < n) init = ast.Child(d, i);
+		for (int j = 0; j < names; j++) {
+			String name = Name(ast.Child(d, j));
+			decl.put(name, d);
+			if (ast.kind[type] == Ast.ARRAY) {
+				int r = ast.Child(type, 0), lo = Expr(ast.Child(r, 0)), hi = Expr(ast.Child(r, 1));
+				bounds.put(name, new int[] {lo, hi});
+				vars.put(name, new int[Math.max(0, hi - lo + 1)]);
+			} else {
+				if (range >= 0) bounds.put(name, new int[] {Expr(ast.Child(range, 0)), Expr(ast.Child(range, 1))});
+				vars.put(name, Check(name, init >= 0 ? Expr(init) : 0));
+			}
+		}
+	}
+
+	private void Stmt(int n) {
+		if (ast.kind[n] != Ast.ASSIGN) return;
+		int target = ast.Child(n, 0);
+		if (ast.kind[target] == Ast.INDEXED) {
+			String name = Name(ast.Child(target, 0));
+			int x = Expr(ast.Child(target, 1)), v = Expr(ast.Child(n, 1));
+			int[] b = bounds.get(name);
+			if (x < b[0] || x > b[1]) throw new ArithmeticException("index out of range");
+			((int[]) vars.get(name))[x - b[0]] = CheckElement(name, v);
+		} else {
+			String name = Name(target);
+			vars.put(name, Check(name, Expr(ast.Child(n, 1))));
+		}
+	}
+
+	private int Check(String name, int v) {
+		int[] b = bounds.get(name);
+		if (b != null && (v < b[0] || v > b[1])) throw new ArithmeticException("range check failed");
+		return v;
+	}
+
+	// elements are constrained by the range of the declaration, if any
+	private int CheckElement(String name, int v) {
+		int d = decl.get(name), n = ast.childCount[d], i = 0;
+		while (ast.kind[ast.Child(d, i)] == Ast.NAME) i++;
+		if (i + 1 < n && ast.kind[ast.Child(d, i + 1)] == Ast.RANGE) {
+			int r = ast.Child(d, i + 1), lo = Expr(ast.Child(r, 0)), hi = Expr(ast.Child(r, 1));
+			if (v < lo || v > hi) throw new ArithmeticException("range check failed");
+		}
+		return v;
+	}
+
+	private int Expr(int n) {
+		switch (ast.kind[n]) {
+			case Ast.NAME:
+				return (Integer) vars.get(Name(n));
+			case Ast.PARENS:
+				return Expr(ast.Child(n, 0));
+			case Ast.BOOL:
+				return tokens.Val(ast.tok[n]).equalsIgnoreCase("true") ? 1 : 0;
+			case Ast.NUMBER:
+				return Integer.parseInt(tokens.Val(ast.tok[n]));
+			case Ast.BINARY: {
+				int l = ast.Child(n, 0), y = Expr(ast.Child(n, 1));
+				String op = tokens.Val(ast.tok[n]);
+				if (ast.kind[l] == Ast.EMPTY) return op.equals("-") ? Math.negateExact(y) : y;
+				int x = Expr(l);
+				switch (op) {
+					case "+": return Math.addExact(x, y);
+					case "-": return Math.subtractExact(x, y);
+					case "*": return Math.multiplyExact(x, y);
+					default:
+						if (y < 0) throw new ArithmeticException("negative exponent");
+						int v = 1;
+						for (; y > 0; y--) v = Math.multiplyExact(v, x);
+						return v;
+				}
+			}
+			default:
+				throw new FatalError("cannot run " + tokens.Val(ast.from[n]));
+		}
+	}
+
+	private String Name(int n) {
+		return tokens.Val(ast.tok[n]).toLowerCase();
+	}
+}
@@ -0,0 +1,92 @@
+//-----------------------------------------------------------------------------------
+// BenchDriver  -- entry points for the benchmarks, which cannot name classes in
+// the default package directly
+//-----------------------------------------------------------------------------------
+public class BenchDriver {
+
+	// scan file completely, returns the number of tokens
+	public static int Scan(String file) {
+		Scanner scanner = new Scanner(file);
+		int n = 0;
+		while (scanner.Scan().kind != Scanner.eofSym) n++;
+		return n;
+	}
+
+	// scan text completely, returns the number of tokens
+	public static int ScanText(CharSequence text) {
+		Scanner scanner = new Scanner(text);
+		int n = 0;
+		while (scanner.Scan().kind != Scanner.eofSym) n++;
+		return n;
+	}
+
+	// scan and parse file, the listing goes to out (none if null); returns the number of errors
+	public static int Parse(String file, Appendable out) {
+		Parser parser = new Parser(new Scanner(file));
+		parser.out = out;
+		parser.Parse();
+		return parser.errors.count;
+	}
+
+	// as Parse, but the scanner runs on a thread of its own
+	public static int ParsePipelined(String file, Appendable out) {
+		Scanner scanner = new Scanner(file);
+		scanner.Pipeline();
+		Parser parser = new Parser(scanner);
+		parser.out = out;
+		parser.Parse();
+		return parser.errors.count;
+	}
+
+	// parse file and translate it for Interp; the result is passed to Interpret and Walk
+	public static Object Prepare(String file) {
+		Parser parser = new Parser(new Scanner(file));
+		parser.out = null;
+		parser.Parse();
+		Ir ir = new Ir();
+		if (parser.errors.count > 0 || !new IrGen().Generate(parser.ast, parser.tokens, parser.fold, parser.errors, ir)) {
+			throw new FatalError(file + " cannot be run");
+		}
+		return new Object[] {parser, ir, new Interp(), new AstWalker()};
+	}
+
+	// run a prepared unit with Interp, returns the number of instructions
+	public static int Interpret(Object prepared) {
+		Object[] p = (Object[]) prepared;
+		Ir ir = (Ir) p[1];
+		Interp interp = (Interp) p[2];
+		if (!interp.Run(ir)) throw new FatalError("line " + interp.failedLine + ": " + interp.failure);
+		return ir.count;
+	}
+
+	// run a prepared unit with AstWalker, returns the number of variables
+	public static int Walk(Object prepared) {
+		Object[] p = (Object[]) prepared;
+		Parser parser = (Parser) p[0];
+		return ((AstWalker) p[3]).Run(parser.ast, parser.tokens).size();
+	}
+
+	// start a CompileServer on socket, returns it for StopServer
+	public static Object StartServer(String socket) throws java.io.IOException {
+		CompileServer server = new CompileServer(java.nio.file.Paths.get(socket), Runtime.getRuntime().availableProcessors());
+		Thread t = new Thread(() -> {
+			try {
+				server.Serve();
+			} catch (java.io.IOException e) {
+				// stopped
+			}
+		}, "adababy-server");
+		t.setDaemon(true);
+		t.start();
+		return server;
+	}
+
+	public static void StopServer(Object server) {
+		((CompileServer) server).Stop();
+	}
+
+	// compile file on the server on socket, the output is discarded; returns the number of errors
+	public static int Request(String socket, String file) throws java.io.IOException {
+		return CompileClient.Request(socket, new String[] {file}, java.io.OutputStream.nullOutputStream());
+	}
+}
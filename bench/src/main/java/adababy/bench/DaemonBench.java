@@ -0,0 +1,103 @@
+package adababy.bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of compiling one file: a new JVM running {@code compile} (cold), a new
+ * JVM running {@code CompileClient} against a warm server, and a request sent to
+ * the warm server from this JVM, which leaves out the startup of the client.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DaemonBench {
+
+	// the compiler lives in the default package, so it is called through BenchDriver
+	private static final MethodHandle START;
+	private static final MethodHandle STOP;
+	private static final MethodHandle REQUEST;
+
+	static {
+		try {
+			Class<?> driver = Class.forName("BenchDriver");
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			START = lookup.findStatic(driver, "StartServer", MethodType.methodType(Object.class, String.class));
+			STOP = lookup.findStatic(driver, "StopServer", MethodType.methodType(void.class, Object.class));
+			REQUEST = lookup.findStatic(driver, "Request", MethodType.methodType(int.class, String.class, String.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	@Param({"1024", "65536"})
+	public int size;
+
+	private String file;
+	private String socket;
+	private Object server;
+	private final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+	private final String classPath = System.getProperty("java.class.path");
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		file = Inputs.generate(size, Inputs.Encoding.ASCII, Inputs.Shape.IDENTIFIERS).toString();
+		Path dir = Files.createTempDirectory("adababy-daemon");
+		dir.toFile().deleteOnExit();
+		socket = dir.resolve("bench.sock").toString();
+		server = (Object) START.invokeExact(socket);
+		int errors = (int) REQUEST.invokeExact(socket, file);
+		if (errors != 0) throw new IllegalStateException(errors + " errors in generated source " + file);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Throwable {
+		STOP.invokeExact(server);
+	}
+
+	@Benchmark
+	public int cold() throws Exception {
+		return run("-cp", classPath, "compile", file);
+	}
+
+	@Benchmark
+	public int client() throws Exception {
+		return run("-cp", classPath, "-Dadababy.socket=" + socket, "CompileClient", file);
+	}
+
+	@Benchmark
+	public int warm() throws Throwable {
+		return (int) REQUEST.invokeExact(socket, file);
+	}
+
+	private int run(String... args) throws Exception {
+		String[] cmd = new String[args.length + 1];
+		cmd[0] = java;
+		System.arraycopy(args, 0, cmd, 1, args.length);
+		Process p = new ProcessBuilder(cmd).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+			.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		return p.waitFor();
+	}
+}
@@ -0,0 +1,151 @@
+package adababy.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The scanner generated by Coco, whose NextToken is a switch over the states,
+ * against the one generated by ScanTable, which walks transition tables.
+ * <p>
+ * The switch scanner is the one compiled into this jar. The table scanner is
+ * compiled by {@code make bench} into {@code target/table} (another directory
+ * can be given with {@code -jvmArgsAppend -Dadababy.table=dir}); it is loaded
+ * with the rest of the compiler in a class loader of its own, because both
+ * scanners have the same class names.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DfaBench {
+
+	public enum Automaton { SWITCH, TABLE }
+
+	@Param({"SWITCH", "TABLE"})
+	public Automaton scanner;
+
+	@Param({"1048576"})
+	public int size;
+
+	@Param({"ASCII", "UTF8"})
+	public Inputs.Encoding encoding;
+
+	@Param({"IDENTIFIERS", "COMMENTS", "ARITHMETIC"})
+	public Inputs.Shape shape;
+
+	private MethodHandle scan;
+	private MethodHandle parse;
+	private String file;
+	private long fileBytes;
+	private int fileTokens;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		Class<?> driver;
+		if (scanner == Automaton.TABLE) {
+			ClassLoader table = new TableLoader(Paths.get(System.getProperty("adababy.table", "target/table")));
+			table.loadClass("Dfa"); // fails unless the tables are there
+			driver = table.loadClass("BenchDriver");
+		} else {
+			driver = Class.forName("BenchDriver");
+			if (driver.getClassLoader().getResource("Dfa.class") != null) {
+				throw new IllegalStateException("benchmarks.jar was built with SCANNER=table");
+			}
+		}
+		MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		scan = lookup.findStatic(driver, "Scan", MethodType.methodType(int.class, String.class));
+		parse = lookup.findStatic(driver, "Parse", MethodType.methodType(int.class, String.class, Appendable.class));
+
+		Path path = Inputs.generate(size, encoding, shape);
+		file = path.toString();
+		fileBytes = Files.size(path);
+		fileTokens = (int) scan.invokeExact(file);
+		int errors = (int) parse.invokeExact(file, (Appendable) null);
+		if (errors != 0) throw new IllegalStateException(errors + " errors in generated source " + file);
+	}
+
+	@Benchmark
+	public int scan(ScannerBench.Rate rate) throws Throwable {
+		int n = (int) scan.invokeExact(file);
+		rate.tokens += n;
+		rate.bytes += fileBytes;
+		return n;
+	}
+
+	@Benchmark
+	public int scanParseSilent(ScannerBench.Rate rate) throws Throwable {
+		int errors = (int) parse.invokeExact(file, (Appendable) null);
+		rate.tokens += fileTokens;
+		rate.bytes += fileBytes;
+		return errors;
+	}
+
+	/**
+	 * Defines the classes of the default package itself: from {@code dir} if they
+	 * are there (the table scanner), otherwise from the bytes in this jar.
+	 * Other classes come from the parent.
+	 */
+	static final class TableLoader extends ClassLoader {
+		private final Path dir;
+
+		TableLoader(Path dir) throws IOException {
+			super(DfaBench.class.getClassLoader());
+			if (!Files.isRegularFile(dir.resolve("Scanner.class"))) {
+				throw new IOException("no table scanner in " + dir.toAbsolutePath() + " (make bench compiles it)");
+			}
+			this.dir = dir;
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (name.indexOf('.') >= 0) return super.loadClass(name, resolve);
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null) c = findClass(name);
+				if (resolve) resolveClass(c);
+				return c;
+			}
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			try {
+				Path file = dir.resolve(name + ".class");
+				byte[] b;
+				if (Files.isRegularFile(file)) {
+					b = Files.readAllBytes(file);
+				} else {
+					try (InputStream in = getParent().getResourceAsStream(name + ".class")) {
+						if (in == null) throw new ClassNotFoundException(name);
+						b = in.readAllBytes();
+					}
+				}
+				return defineClass(name, b, 0, b.length);
+			} catch (IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+	}
+}
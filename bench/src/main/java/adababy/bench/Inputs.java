@@ -0,0 +1,83 @@
+package adababy.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Synthetic AdaBaby sources. Every generated file is one valid procedure whose
+ * declarations and statements are repeated until the requested size is reached;
+ * it runs without a range check failing.
+ */
+public final class Inputs {
+
+	public enum Encoding { ASCII, UTF8, UTF8_BOM }
+
+	/**
+	 * IDENTIFIERS: plain declarations and statements; COMMENTS: two comment lines
+	 * before each of them; ARITHMETIC: statements full of minus signs (each of which
+	 * the scanner first takes for the start of a comment) and ranges written without
+	 * blanks (after {@code 1.} the scanner has to back up to the numeral).
+	 */
+	public enum Shape { IDENTIFIERS, COMMENTS, ARITHMETIC }
+
+	private Inputs() {}
+
+	/** Writes a source of about {@code size} bytes to a new temporary file. */
+	static Path generate(int size, Encoding encoding, Shape shape) throws IOException {
+		Path file = Files.createTempFile("adababy-" + size + "-" + encoding + "-" + shape + "-", ".adb");
+		file.toFile().deleteOnExit();
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+			Counter w = new Counter(out);
+			if (encoding == Encoding.UTF8_BOM) w.write(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+			String comment = encoding != Encoding.ASCII
+				? "-- Größe überprüfen: café, naïve, Ωmega, ∑ über alle Einträge\n"
+				: "-- check the size of the table before the next entries are added\n";
+			w.line("procedure bench is\n");
+			String range = shape == Shape.ARITHMETIC ? "1..100" : "1 .. 100";
+			int half = size / 2, groups = 0;
+			for (; w.count < half || groups < 2; groups++) {
+				if (shape == Shape.COMMENTS) { w.line(comment); w.line(comment); }
+				int i = groups;
+				w.line("    delta_" + i + ", epsilon_" + i + " : Integer := " + (i % 7 + 1) + ";\n");
+				w.line("    table_" + i + " : array (1 .. 10) of Integer;\n");
+				w.line("    alpha_" + i + ", beta_" + i + ", gamma_" + i + " : Integer range " + range + " := delta_" + i + " + 3 * epsilon_" + i + ";\n");
+			}
+			w.line("begin\n");
+			// the statements stay within the ranges, so the unit also runs
+			for (int k = 0; w.count < size; k++) {
+				if (shape == Shape.COMMENTS) { w.line(comment); w.line(comment); }
+				int i = k % groups;
+				if (shape == Shape.ARITHMETIC) {
+					// beta and gamma are equal, so are delta and epsilon: alpha becomes 2
+					int j = (i + 1) % groups;
+					w.line("    alpha_" + i + " := beta_" + i + " - gamma_" + i + " - delta_" + j + " + epsilon_" + j + " - 1 - 2 + 5;\n");
+				} else {
+					w.line("    alpha_" + i + " := beta_" + i + " + gamma_" + i + " * 2 - delta_" + (i + 1) % groups + ";\n");
+				}
+				w.line("    table_" + i + "(" + (k % 10 + 1) + ") := alpha_" + i + " ** 2;\n");
+			}
+			w.line("end bench;\n");
+		}
+		return file;
+	}
+
+	private static final class Counter {
+		final OutputStream out;
+		long count;
+
+		Counter(OutputStream out) { this.out = out; }
+
+		void write(byte[] b) throws IOException {
+			out.write(b);
+			count += b.length;
+		}
+
+		void line(String s) throws IOException {
+			write(s.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package adababy.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Running a parsed unit: the interpreter on the resolved three-address code
+ * against a walker that looks up every name in a map on the tree.
+ * Parsing and translation are done once per trial and are not measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InterpBench {
+
+	// the compiler lives in the default package, so it is called through BenchDriver
+	private static final MethodHandle PREPARE;
+	private static final MethodHandle INTERPRET;
+	private static final MethodHandle WALK;
+
+	static {
+		try {
+			Class<?> driver = Class.forName("BenchDriver");
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			PREPARE = lookup.findStatic(driver, "Prepare", MethodType.methodType(Object.class, String.class));
+			INTERPRET = lookup.findStatic(driver, "Interpret", MethodType.methodType(int.class, Object.class));
+			WALK = lookup.findStatic(driver, "Walk", MethodType.methodType(int.class, Object.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	@Param({"1024", "65536", "1048576"})
+	public int size;
+
+	private Object unit;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		unit = (Object) PREPARE.invokeExact(Inputs.generate(size, Inputs.Encoding.ASCII, Inputs.Shape.IDENTIFIERS).toString());
+	}
+
+	@Benchmark
+	public int interpret() throws Throwable {
+		return (int) INTERPRET.invokeExact(unit);
+	}
+
+	@Benchmark
+	public int walk() throws Throwable {
+		return (int) WALK.invokeExact(unit);
+	}
+}
@@ -0,0 +1,139 @@
+package adababy.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the scanner and parser on synthetic sources.
+ * Tokens/s and bytes/s are reported as auxiliary counters; run with
+ * {@code -prof gc} for the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScannerBench {
+
+	// the compiler lives in the default package, so it is called through BenchDriver
+	private static final MethodHandle SCAN;
+	private static final MethodHandle SCAN_TEXT;
+	private static final MethodHandle PARSE;
+	private static final MethodHandle PARSE_PIPELINED;
+
+	static {
+		try {
+			Class<?> driver = Class.forName("BenchDriver");
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			SCAN = lookup.findStatic(driver, "Scan", MethodType.methodType(int.class, String.class));
+			SCAN_TEXT = lookup.findStatic(driver, "ScanText", MethodType.methodType(int.class, CharSequence.class));
+			PARSE = lookup.findStatic(driver, "Parse", MethodType.methodType(int.class, String.class, Appendable.class));
+			PARSE_PIPELINED = lookup.findStatic(driver, "ParsePipelined", MethodType.methodType(int.class, String.class, Appendable.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	@Param({"1024", "65536", "1048576", "104857600"})
+	public int size;
+
+	@Param({"ASCII", "UTF8", "UTF8_BOM"})
+	public Inputs.Encoding encoding;
+
+	@Param({"IDENTIFIERS", "COMMENTS", "ARITHMETIC"})
+	public Inputs.Shape shape;
+
+	private String file;
+	private String text;
+	private long fileBytes;
+	private int fileTokens;
+	private final StringBuilder listing = new StringBuilder();
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		Path path = Inputs.generate(size, encoding, shape);
+		file = path.toString();
+		fileBytes = Files.size(path);
+		fileTokens = (int) SCAN.invokeExact(file);
+		text = Files.readString(path);
+		int textTokens = (int) SCAN_TEXT.invokeExact((CharSequence) text);
+		if (textTokens != fileTokens) throw new IllegalStateException(textTokens + " tokens in the text of " + file);
+		int errors = (int) PARSE.invokeExact(file, (Appendable) null);
+		if (errors != 0) throw new IllegalStateException(errors + " errors in generated source " + file);
+	}
+
+	/** Per-iteration totals, normalized by JMH to tokens/s and bytes/s. */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Rate {
+		public long tokens;
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			tokens = 0;
+			bytes = 0;
+		}
+	}
+
+	@Benchmark
+	public int scan(Rate rate) throws Throwable {
+		int n = (int) SCAN.invokeExact(file);
+		rate.tokens += n;
+		rate.bytes += fileBytes;
+		return n;
+	}
+
+	/** Scans the file decoded into a String in advance, as an editor holds it. */
+	@Benchmark
+	public int scanText(Rate rate) throws Throwable {
+		int n = (int) SCAN_TEXT.invokeExact((CharSequence) text);
+		rate.tokens += n;
+		rate.bytes += fileBytes;
+		return n;
+	}
+
+	@Benchmark
+	public int scanParse(Rate rate) throws Throwable {
+		listing.setLength(0);
+		int errors = (int) PARSE.invokeExact(file, (Appendable) listing);
+		rate.tokens += fileTokens;
+		rate.bytes += fileBytes;
+		return errors;
+	}
+
+	@Benchmark
+	public int scanParseSilent(Rate rate) throws Throwable {
+		int errors = (int) PARSE.invokeExact(file, (Appendable) null);
+		rate.tokens += fileTokens;
+		rate.bytes += fileBytes;
+		return errors;
+	}
+
+	@Benchmark
+	public int scanParsePipelined(Rate rate) throws Throwable {
+		int errors = (int) PARSE_PIPELINED.invokeExact(file, (Appendable) null);
+		rate.tokens += fileTokens;
+		rate.bytes += fileBytes;
+		return errors;
+	}
+}
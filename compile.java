@@ -7,9 +7,18 @@ class compile
 {
 	public static void main(String[] args)
 	{
-	Scanner scanner = new Scanner(args[0]);
-	Parser parser = new Parser(scanner);
-	parser.Parse();
+	Batch.cache = ParseCache.Default(); // -Dadababy.cache=<directory>
+	if (args.length > 1 || new java.io.File(args[0]).isDirectory()) {
+		Batch.Run(args, true); // many units, compiled in parallel
+		return;
+	}
+	Parser parser;
+	if (Batch.cache != null) parser = Batch.cache.Parse(args[0], System.out, System.out, false, 0);
+	else {
+		Scanner scanner = new Scanner(args[0]);
+		parser = new Parser(scanner);
+		parser.Parse();
+	}
 	System.out.println(parser.errors.count + " errors detected");
 	}	
 }
@@ -0,0 +1,67 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+//-----------------------------------------------------------------------------------
+// CompileServerTest  -- a request answers what compile prints, on a private socket
+//-----------------------------------------------------------------------------------
+class CompileServerTest {
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("server");
+		Path socket = dir.resolve("s.sock");
+		File a = Unit(dir, "a", "x : Integer := 1;"), b = Unit(dir, "b", "x : Integer := y;");
+		CompileServer server = new CompileServer(socket, 2);
+		Thread t = new Thread(() -> {
+			try {
+				server.Serve();
+			} catch (IOException e) {
+				// stopped
+			}
+		});
+		t.start();
+		String perms = PosixFilePermissions.toString(Files.getPosixFilePermissions(socket));
+		Tests.Check(perms.equals("rw-------"), "socket " + perms);
+
+		String other = null;
+		try {
+			new CompileServer(socket, 1).Stop();
+		} catch (IOException e) {
+			other = e.getMessage();
+		}
+		Tests.Check(other != null && other.contains("listening"), "second server: " + other);
+
+		String[] request = {a.getPath(), b.getPath()};
+		ByteArrayOutputStream got = new ByteArrayOutputStream(), expected = new ByteArrayOutputStream();
+		int errors = CompileClient.Request(socket.toString(), request, got);
+		int local = CompileServer.Compile(request, new PrintStream(expected, true));
+		Tests.Check(errors == 1 && local == 1, "errors " + errors + ", " + local);
+		Tests.Check(got.toString().equals(expected.toString()), "output\n" + got + "instead of\n" + expected);
+
+		// a response counts the units of its own request that came from the cache
+		ParseCache cache = Batch.cache = new ParseCache(dir.resolve("cache").toString(), 1 << 20);
+		for (int i = 0; i < 3; i++) {
+			got.reset();
+			CompileClient.Request(socket.toString(), request, got);
+		}
+		Tests.Check(got.toString().contains("\n2 units from the parse cache"), "cache\n" + got);
+		Batch.cache = null;
+		for (File f : cache.dir.listFiles()) f.delete();
+		cache.dir.delete();
+
+		Tests.Check(CompileClient.Request(socket.toString(), new String[] {CompileServer.STOP}, got) == 0, "stop");
+		t.join(5000);
+		Tests.Check(!t.isAlive() && !Files.exists(socket), "stopped");
+		a.delete(); b.delete(); Files.deleteIfExists(socket); Files.delete(dir);
+		Tests.Done("CompileServerTest");
+	}
+
+	static File Unit(Path dir, String name, String decl) throws IOException {
+		File f = dir.resolve(name + ".adb").toFile();
+		Files.write(f.toPath(), ("procedure " + name + " is\n  " + decl + "\nbegin\n  x := 2;\nend " + name + ";\n").getBytes("UTF-8"));
+		return f;
+	}
+}
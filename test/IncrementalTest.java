@@ -0,0 +1,132 @@
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+//-----------------------------------------------------------------------------------
+// IncrementalTest  -- after every edit Incremental has what a full parse would give
+//-----------------------------------------------------------------------------------
+// Random edits, which mostly break the unit, and edits that keep it valid, so that
+// the statement list is parsed in part; tokens, errors, listing and tree are
+// compared with a fresh parse of the edited source. The same local edits in units
+// of different sizes take the same work.
+class IncrementalTest {
+	static final PrintStream QUIET = new PrintStream(OutputStream.nullOutputStream());
+	static final String[] SNIPPETS = {"x", "1", " ", "\n", ";", " := ", "-- c\n", "-", "q := 5;", "z : Integer;", "null;", "(", ")", "", "+", "abc", "2 ** 3", "begin", "\r\n"};
+
+	static int partial, tokensOnly;
+
+	public static void main(String[] args) {
+		StringBuilder b = new StringBuilder("procedure p is\n  a : array (0 .. 100) of Integer;\n  q : Integer;\n");
+		for (int i = 0; i < 20; i++) b.append("  w").append(i).append(" : Integer;\n");
+		for (int i = 0; i < 20; i++) b.append("  v").append(i).append(" : Integer := ").append(i).append(" + 2 * w").append(i).append("; -- decl ").append(i).append('\n');
+		b.append("begin\n");
+		for (int i = 0; i < 20; i++) b.append("  v").append(i).append(" := v").append((i + 1) % 20).append(" - 3;\n  a(").append(i).append(") := 4;\n  null;\n");
+		byte[] src = b.append("end p;\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+		Random rnd = new Random(5);
+		Edits(src, rnd, false);
+		Edits(src, rnd, true);
+		Tests.Check(partial > 0 && tokensOnly > 0, partial + " edits parsed in part, " + tokensOnly + " rescanned only");
+		Utf8();
+		String small = Work(200), large = Work(3200);
+		Tests.Check(small.equals(large), "work per edit does not grow with the unit: " + small + " and " + large);
+		Tests.Done("IncrementalTest");
+	}
+
+	static void Edits(byte[] src, Random rnd, boolean valid) {
+		Incremental inc = New(src);
+		for (int step = 0; step < 600; step++) {
+			String cur = new String(inc.Source(), StandardCharsets.ISO_8859_1);
+			if (valid) { // a statement, declaration or comment after a semicolon, or a changed number
+				int end = cur.lastIndexOf("end"), k = cur.indexOf(";\n", rnd.nextInt(cur.length()));
+				if (k < 0 || k > end) k = cur.indexOf(";\n");
+				String ins = k < cur.indexOf("begin")
+					? new String[] {"\n  z" + step + " : Integer;", " -- note", "\n"}[rnd.nextInt(3)]
+					: new String[] {"\n  q := 5;", " -- note", "\n  null;", "\n"}[rnd.nextInt(4)];
+				int d = cur.indexOf(" 3;", rnd.nextInt(cur.length()));
+				if (rnd.nextInt(3) == 0 && d > 0 && d < end) inc.Edit(d, 2, " 17".getBytes(StandardCharsets.ISO_8859_1));
+				else inc.Edit(k + 1, 0, ins.getBytes(StandardCharsets.ISO_8859_1));
+			} else {
+				int pos = rnd.nextInt(inc.Source().length + 1);
+				int del = rnd.nextInt(4) == 0 ? Math.min(rnd.nextInt(6), inc.Source().length - pos) : 0;
+				inc.Edit(pos, del, SNIPPETS[rnd.nextInt(SNIPPETS.length)].getBytes(StandardCharsets.ISO_8859_1));
+			}
+			if (inc.reparsed > 0) partial++;
+			else if (inc.reparsed == 0) tokensOnly++;
+			if (!Same(inc, step, valid)) return;
+			if (inc.errors > 0 && rnd.nextInt(3) == 0) inc = New(src); // a valid source now and then
+		}
+	}
+
+	// a source without byte order mark is UTF-8 if its first non-ASCII character is,
+	// as for a file; an edit before that character can change the encoding
+	static void Utf8() {
+		String u = "procedure p is\n  v : Integer; -- \u00e9t\u00e9\nbegin\n  v := 1;\nend p;\n";
+		byte[] src = u.getBytes(StandardCharsets.UTF_8);
+		Incremental inc = New(src);
+		int at = new String(src, StandardCharsets.ISO_8859_1).indexOf("1;"); // in bytes
+		inc.Edit(at + 2, 0, "\n  null;".getBytes(StandardCharsets.ISO_8859_1));
+		TokenTable t = inc.Tokens();
+		boolean ok = inc.reparsed == 1 && t.charPos[t.count - 1] == u.length() + 8;
+		inc.Edit(u.indexOf("v :"), 0, "\u00e9".getBytes(StandardCharsets.ISO_8859_1)); // now Latin-1
+		t = inc.Tokens();
+		Tests.Check(ok && inc.reparsed == -1 && inc.errors > 0 && t.charPos[t.count - 1] > u.length() + 9, "encoding of a source without byte order mark");
+	}
+
+	// tokens scanned, statements parsed and tokens moved by the same edits in the
+	// middle of a unit with n statements
+	static String Work(int n) {
+		StringBuilder b = new StringBuilder("procedure p is\n  v : Integer;\nbegin\n");
+		for (int i = 0; i < n; i++) b.append(i == n / 2 ? "  v := 0; -- here\n" : "  v := v + 1;\n");
+		Incremental inc = New(b.append("end p;\n").toString().getBytes(StandardCharsets.ISO_8859_1));
+		int here = b.indexOf("0; -- here");
+		inc.Edit(here, 1, "1".getBytes(StandardCharsets.ISO_8859_1)); // brings the gap to the middle
+		int scanned = 0, parsed = 0, moved = 0;
+		String[] text = {"22", "3", "\n  null;", "", "1"}; // replace len bytes at here + offset
+		int[] offset = {0, 0, 2, 2, 0}, len = {1, 2, 0, 8, 1};
+		for (int step = 0; step < 40; step++) {
+			int k = step % text.length;
+			inc.Edit(here + offset[k], len[k], text[k].getBytes(StandardCharsets.ISO_8859_1));
+			if (inc.errors > 0 || inc.reparsed < 0) return "a full parse at step " + step;
+			scanned += inc.rescanned; parsed += inc.reparsed; moved += inc.moved;
+		}
+		Same(inc, -1, true);
+		return scanned + " scanned, " + parsed + " parsed, " + moved + " moved";
+	}
+
+	static Incremental New(byte[] src) {
+		Incremental inc = new Incremental(src);
+		inc.errorStream = QUIET;
+		return inc;
+	}
+
+	static boolean Same(Incremental inc, int step, boolean valid) {
+		String what = (valid ? "valid" : "random") + " edit " + step;
+		byte[] src = inc.Source();
+		Parser ref = new Parser(new Scanner(new ByteArrayInputStream(src)));
+		ref.out = null;
+		ref.errors.errorStream = QUIET;
+		ref.Parse();
+		TokenTable t = inc.Tokens(), r = ref.tokens;
+		boolean ok = ref.errors.count == inc.errors;
+		for (int i = 0; ok && i < Math.min(t.count, r.count); i++) { // ref may have an extra EOF
+			ok = t.SameAs(i, r, i) && t.pos[i] == r.pos[i] && t.line[i] == r.line[i] && t.col[i] == r.col[i] && t.charPos[i] == r.charPos[i];
+		}
+		if (ok && ref.errors.count == 0) ok = Listing(inc.Tree(), t).equals(Listing(ref.ast, r)) && Tree(inc.Tree(), inc.Tree().root).equals(Tree(ref.ast, ref.ast.root));
+		Tests.Check(ok, what + ":\n" + new String(src, StandardCharsets.ISO_8859_1));
+		return ok;
+	}
+
+	static String Listing(Ast ast, TokenTable tokens) {
+		StringBuilder b = new StringBuilder();
+		ast.List(b, tokens);
+		return b.toString();
+	}
+
+	static String Tree(Ast t, int n) {
+		StringBuilder b = new StringBuilder("(").append(t.kind[n]).append(' ').append(t.tok[n]).append(' ').append(t.from[n]).append(' ').append(t.to[n]);
+		for (int i = 0; i < t.childCount[n]; i++) b.append(Tree(t, t.Child(n, i)));
+		return b.append(')').toString();
+	}
+}
@@ -0,0 +1,94 @@
+import java.util.Random;
+
+//-----------------------------------------------------------------------------------
+// InterpTest  -- Interp and the classes of CodeGen compute what the source says
+//-----------------------------------------------------------------------------------
+// Random units of assignments are generated together with the values of their
+// variables, computed here with long arithmetic; a unit whose values leave Integer
+// must stop with an error at the line of that assignment, in Interp and in its class
+// (or be rejected there by Fold, if the step is a constant one).
+class InterpTest {
+	static Random rnd = new Random(11);
+	static long[] vals;
+	static long value;        // of the last expression from Expr
+	static boolean overflow;  // a step of it left Integer
+
+	public static void main(String[] args) throws Exception {
+		int failing = 0;
+		for (int u = 0; u < 300; u++) {
+			int n = 1 + rnd.nextInt(5);
+			vals = new long[n];
+			StringBuilder s = new StringBuilder("procedure p is\n");
+			for (int i = 0; i < n; i++) {
+				vals[i] = rnd.nextInt(5);
+				s.append("  v").append(i).append(" : Integer := ").append(vals[i]).append(";\n");
+			}
+			s.append("begin\n");
+			int line = n + 2, failed = 0;
+			for (int st = 0; st < 6 && failed == 0; st++) {
+				overflow = false;
+				int v = rnd.nextInt(n);
+				String e = Expr(3, n);
+				long x = value;
+				s.append("  v").append(v).append(" := ").append(e).append(";\n");
+				line++;
+				if (overflow) failed = line;
+				else vals[v] = x;
+			}
+			s.append("end p;\n");
+			String src = s.toString(), expected;
+			if (failed > 0) {
+				expected = "-- line " + failed;
+				failing++;
+			} else {
+				StringBuilder b = new StringBuilder();
+				for (int i = 0; i < n; i++) b.append("\tv").append(i).append(" = ").append(vals[i]).append('\n');
+				expected = b.toString();
+			}
+			String got = Tests.Run(src);
+			boolean ok = failed > 0 ? got.startsWith(expected + ":") || got.startsWith(expected + " col") : got.equals(expected);
+			Tests.Check(ok, "interpreted\n" + src + got + "instead of\n" + expected);
+			String c = Tests.RunClass(src);
+			Tests.Check(failed > 0 ? c != null : c == null, "class\n" + src + c);
+		}
+		Tests.Check(failing > 10 && failing < 290, failing + " units fail");
+		Tests.Done("InterpTest");
+	}
+
+	// a random expression over the n variables; see value and overflow
+	static String Expr(int depth, int n) {
+		if (depth == 0 || rnd.nextInt(4) == 0) {
+			if (rnd.nextBoolean()) { int i = rnd.nextInt(n); value = vals[i]; return "v" + i; }
+			value = rnd.nextInt(10);
+			return String.valueOf(value);
+		}
+		switch (rnd.nextInt(5)) {
+			case 0: {
+				String e = Expr(depth - 1, n);
+				value = Fit(-value);
+				return "(-" + e + ")";
+			}
+			case 1: {
+				String e = Expr(depth - 1, n);
+				int k = rnd.nextInt(4);
+				long v = 1;
+				for (int i = 0; i < k; i++) v = Fit(v * value);
+				value = v;
+				return "((" + e + ") ** " + k + ")";
+			}
+			default: {
+				String l = Expr(depth - 1, n);
+				long x = value;
+				String r = Expr(depth - 1, n);
+				String op = new String[] {" + ", " - ", " * "}[rnd.nextInt(3)];
+				value = Fit(op.equals(" + ") ? x + value : op.equals(" - ") ? x - value : x * value);
+				return "(" + l + op + r + ")";
+			}
+		}
+	}
+
+	static long Fit(long v) {
+		if (v != (int) v) overflow = true;
+		return (int) v;
+	}
+}
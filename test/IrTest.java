@@ -0,0 +1,138 @@
+import java.util.Random;
+
+//-----------------------------------------------------------------------------------
+// IrTest  -- the three-address code of IrGen and its allocation by Ir.Allocate
+//-----------------------------------------------------------------------------------
+// Expression-heavy units are allocated to several numbers of physical registers.
+// For two families of units the pressure and the number of spilled registers are
+// known in closed form; for random units the spills are compared with the fewest
+// that any choice of spilled intervals needs, found by trying all of them.
+class IrTest {
+	static final int[] K = {1, 2, 3, 4, 6, 8, 16};
+
+	public static void main(String[] args) throws Exception {
+		Bounds();
+		for (int n = 3; n <= 12; n++) Family("sum of " + n + " variables", Sum(n), n + 2);
+		for (int m = 2; m <= 10; m++) Family(m + " nested products", Products(m), m + 2);
+		Random rnd = new Random(17);
+		for (int u = 0; u < 40; u++) Random(rnd);
+		Tests.Done("IrTest");
+	}
+
+	// the lower bound of a dynamic array is fixed when the array is declared
+	static void Bounds() throws Exception {
+		String src = "procedure p is\n"
+			+ "  lo : Integer := 1;\n"
+			+ "  hi : Integer := 3;\n"
+			+ "  a : array (lo .. hi) of Integer;\n"
+			+ "begin\n"
+			+ "  lo := 5;\n"
+			+ "  a(3) := 7;\n"
+			+ "end p;\n";
+		String r = Tests.Run(src);
+		Tests.Check(r.equals("\tlo = 5\n\thi = 3\n\ta = (0, 0, 7)\n"), "bounds: interpreted " + r);
+		String c = Tests.RunClass(src);
+		Tests.Check(c == null, "bounds: class " + c);
+	}
+
+	// x := v1 + v2 + ... + vn: at the first addition all variables, x and the
+	// first sum are live
+	static String Sum(int n) {
+		StringBuilder s = new StringBuilder("procedure p is\n");
+		for (int i = 1; i <= n; i++) s.append("  v").append(i).append(" : Integer := ").append(i).append(";\n");
+		s.append("  x : Integer;\nbegin\n  x := v1");
+		for (int i = 2; i <= n; i++) s.append(" + v").append(i);
+		return s.append(";\nend p;\n").toString();
+	}
+
+	// x := v * v + (v * v + ( ... )): the m products are live together with v and x
+	static String Products(int m) {
+		String e = "v * v";
+		for (int i = 1; i < m; i++) e = "v * v + (" + e + ")";
+		return "procedure p is\n  v : Integer := 3;\n  x : Integer;\nbegin\n  x := " + e + ";\nend p;\n";
+	}
+
+	// with k >= 2 registers exactly pressure - k intervals have to be spilled, the
+	// ones live at the instruction with the highest pressure that end last
+	static void Family(String what, String src, int pressure) {
+		Ir ir = Gen(src);
+		for (int k : K) {
+			ir.Allocate(k);
+			Valid(ir, what);
+			Tests.Check(ir.pressure == pressure, what + ", " + k + " registers: pressure " + ir.pressure);
+			if (k >= 2) Tests.Check(ir.spilled == Math.max(0, pressure - k), what + ", " + k + " registers: " + ir.spilled + " spilled");
+		}
+	}
+
+	static void Random(Random rnd) {
+		int vars = 1 + rnd.nextInt(3);
+		StringBuilder s = new StringBuilder("procedure p is\n");
+		for (int i = 0; i < vars; i++) s.append("  v").append(i).append(" : Integer := ").append(i + 2).append(";\n");
+		s.append("  x : Integer;\nbegin\n");
+		for (int st = 1 + rnd.nextInt(2); st > 0; st--) s.append("  x := ").append(Expr(rnd, vars, 3)).append(";\n");
+		s.append("end p;\n");
+		Ir ir = Gen(s.toString());
+		if (ir.regs > 14) return; // Fewest tries 2^regs choices
+		for (int k : K) {
+			ir.Allocate(k);
+			Valid(ir, s.toString());
+			Tests.Check(ir.pressure == Live(ir, 0), "pressure " + ir.pressure + " of\n" + s);
+			Tests.Check(ir.spilled == Fewest(ir, k), k + " registers: " + ir.spilled + " spilled in\n" + s);
+		}
+	}
+
+	static String Expr(Random rnd, int vars, int depth) {
+		if (depth == 0 || rnd.nextInt(4) == 0) return rnd.nextInt(4) == 0 ? "x" : "v" + rnd.nextInt(vars);
+		String op = rnd.nextBoolean() ? " + " : rnd.nextBoolean() ? " - " : " * ";
+		return "(" + Expr(rnd, vars, depth - 1) + op + Expr(rnd, vars, depth - 1) + ")";
+	}
+
+	static Ir Gen(String src) {
+		Parser parser = new Parser(Tests.Text(src));
+		parser.out = null;
+		parser.Parse();
+		Ir ir = new Ir();
+		boolean ok = parser.errors.count == 0 && new IrGen().Generate(parser.ast, parser.tokens, parser.fold, parser.errors, ir);
+		if (!ok) throw new FatalError("cannot translate\n" + src);
+		return ir;
+	}
+
+	// every register has either a physical register below k or a stack slot, and
+	// overlapping intervals never share a physical register
+	static void Valid(Ir ir, String what) {
+		int spilled = 0;
+		for (int r = 0; r < ir.regs; r++) {
+			if (ir.reg[r] < 0) { spilled++; continue; }
+			boolean ok = ir.reg[r] < ir.physical && ir.slot[r] < 0;
+			for (int q = 0; q < r && ok; q++) {
+				ok = ir.reg[q] != ir.reg[r] || ir.end[q] < ir.start[r] || ir.end[r] < ir.start[q];
+			}
+			Tests.Check(ok, what + ": register " + r + " in r" + ir.reg[r]);
+		}
+		Tests.Check(spilled == ir.spilled && ir.slots == spilled, what + ": " + spilled + " without a register");
+	}
+
+	// the maximum number of intervals that overlap one instruction, without the
+	// registers in the set dropped
+	static int Live(Ir ir, int dropped) {
+		int max = 0;
+		for (int i = 0; i < ir.count; i++) {
+			int live = 0;
+			for (int r = 0; r < ir.regs; r++) {
+				if ((dropped >> r & 1) == 0 && ir.start[r] <= i && i <= ir.end[r]) live++;
+			}
+			max = Math.max(max, live);
+		}
+		return max;
+	}
+
+	// the fewest intervals whose removal leaves at most k live at every instruction
+	static int Fewest(Ir ir, int k) {
+		int best = ir.regs;
+		for (int set = 0; set < 1 << ir.regs; set++) {
+			int n = Integer.bitCount(set);
+			if (n < best && Live(ir, set) <= k) best = n;
+		}
+		return best;
+	}
+}
@@ -0,0 +1,50 @@
+//-----------------------------------------------------------------------------------
+// LiteralTest  -- values of numeric literals, based and with exponents
+//-----------------------------------------------------------------------------------
+// Each literal is assigned to x in a unit that Fold evaluates; written without blanks it is
+// one numeral token, with blanks it is taken together from several tokens.
+class LiteralTest {
+
+	public static void main(String[] args) {
+		Value("1_000", "1000");
+		Value("1E5", "100000");
+		Value("1e+2", "100");
+		Value("1 E 5", "100000");
+		Value("16#FF#", "255");
+		Value("16#ff#", "255");
+		Value("16#7FFF_FFFF#", "2147483647");
+		Value("16 # 10 #", "16");
+		Value("2#101#E2", "20");
+		Value("2#101# E 2", "20");
+		Value("2#1_01#", "5");
+		Value("8#777#", "511");
+		Value("10#1#e0", "1");
+		Value("16#E#E1", "224"); // the first E is a digit
+
+		Error("2#102#", "col 8: digit 2 is not allowed in base 2");
+		Error("2 # 1012 #", "col 12: digit 2 is not allowed in base 2");
+		Error("17#1#", "base 17 is not in 2 .. 16");
+		Error("1E-1", "negative exponent in integer literal");
+		Error("16#FFFF_FFFF_FFFF_FFFF#", "numeric literal is too large");
+
+		// what must still scan as before
+		String range = "procedure p is\n  a : array (1..3) of Integer;\n  x : Integer range 1..3 := 3;\nbegin\n  a(3) := 7;\nend p;\n";
+		Tests.Check(Tests.Fold(range).equals("\ta = 7\n"), "1..3 is a range, got " + Tests.Fold(range).trim());
+		Tests.Check(Tests.Fold(Unit("2", "x := 2*2-1;")).equals("\tx = 3\n"), "2-1 is a difference");
+		Tests.Done("LiteralTest");
+	}
+
+	static String Unit(String init, String stmt) {
+		return "procedure p is\n  x : Integer := " + init + ";\nbegin\n  " + stmt + "\nend p;\n";
+	}
+
+	static void Value(String literal, String value) {
+		String out = Tests.Fold(Unit("0", "x := " + literal + ";"));
+		Tests.Check(out.equals("\tx = " + value + "\n"), literal + " is " + value + ", got " + out.trim());
+	}
+
+	static void Error(String literal, String msg) {
+		String out = Tests.Fold(Unit("0", "x := " + literal + ";"));
+		Tests.Check(out.contains(msg), literal + " gives " + msg + ", got " + out.trim());
+	}
+}
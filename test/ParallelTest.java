@@ -0,0 +1,40 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+//-----------------------------------------------------------------------------------
+// ParallelTest  -- a file scanned in chunks gives the tokens of a sequential scan
+//-----------------------------------------------------------------------------------
+// Files of a few MB, Latin-1 and UTF-8, with non-ASCII characters in strings and
+// comments and with LF and CRLF line ends, are scanned on several threads; kind,
+// value, position, char position, line and column of every token must be those of
+// scanning them at once.
+class ParallelTest {
+	static final String[] LINES = {
+		"  x : Integer := 16#FF# + 1E5;", "  a(3) := b - -c; -- \u00e9t\u00e9 \u20ac", "  s := \"gr\u00f6\u00dfer \ud83d\ude00\";",
+		"  c := '\u00e9';", "  v_1 := (1 .. 5);", "--", "", "  null;", "  \"unterminated", "  y := 'x"
+	};
+
+	public static void main(String[] args) throws Exception {
+		Random rnd = new Random(7);
+		StringBuilder b = new StringBuilder("procedure p is\n");
+		while (b.length() < 3 << 20) b.append(LINES[rnd.nextInt(LINES.length)]).append(rnd.nextInt(4) == 0 ? "\r\n" : "\n");
+		b.append("end p;\n");
+		String text = b.toString();
+		for (boolean utf8 : new boolean[] {false, true}) {
+			File f = File.createTempFile("parallel", ".adb");
+			Files.write(f.toPath(), utf8 ? ("\ufeff" + text).getBytes(StandardCharsets.UTF_8) : text.getBytes(StandardCharsets.ISO_8859_1));
+			TokenTable ref = Tests.All(new Scanner(f.getPath()));
+			for (int threads : new int[] {2, 3, 5}) {
+				Scanner s = new Scanner(f.getPath());
+				s.Parallel(threads);
+				String what = (utf8 ? "UTF-8" : "Latin-1") + ", " + threads + " threads";
+				Tests.Check(s.chunks != null && s.chunks.length > 1, what + ": not scanned in chunks");
+				Tests.Same(ref, Tests.All(s), true, what);
+			}
+			f.delete();
+		}
+		Tests.Done("ParallelTest");
+	}
+}
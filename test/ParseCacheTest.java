@@ -0,0 +1,96 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+//-----------------------------------------------------------------------------------
+// ParseCacheTest  -- hits replay the messages of the parse, damaged entries do not
+//-----------------------------------------------------------------------------------
+// An entry whose messages are intact but whose tokens are cut off is rewritten in
+// place; the next parse must take it as a miss and report the messages once. A
+// small cache stays within its limit.
+class ParseCacheTest {
+	static final int HEADER = 24; // as in ParseCache
+
+	public static void main(String[] args) throws Exception {
+		File dir = Files.createTempDirectory("cache").toFile();
+		File src = new File(dir, "p.adb");
+		Files.write(src.toPath(), "procedure p is\n  x : Integer := y;\nbegin\n  x := 1;\nend p;\n".getBytes("UTF-8"));
+		ParseCache cache = new ParseCache(new File(dir, "entries").getPath(), 1 << 20);
+
+		ByteArrayOutputStream msgs = new ByteArrayOutputStream();
+		Parser p = cache.Parse(src.getPath(), null, new PrintStream(msgs, true), false, 0);
+		String first = msgs.toString();
+		Tests.Check(p.scanner != null && p.errors.count == 1 && first.contains("y is not declared"), "miss: " + first);
+
+		msgs.reset();
+		p = cache.Parse(src.getPath(), null, new PrintStream(msgs, true), false, 0);
+		Tests.Check(p.scanner == null && p.errors.count == 1, "hit: " + p.errors.count + " errors");
+		Tests.Check(msgs.toString().equals(first), "hit: " + msgs);
+
+		File entry = cache.dir.listFiles((d, name) -> name.endsWith(".apc"))[0];
+		Damage(entry);
+		msgs.reset();
+		p = cache.Parse(src.getPath(), null, new PrintStream(msgs, true), false, 0);
+		Tests.Check(p.scanner != null && p.errors.count == 1, "damaged: " + p.errors.count + " errors");
+		Tests.Check(msgs.toString().equals(first), "damaged: messages\n" + msgs);
+
+		// the size of the entries is counted as they are written, the directory is
+		// listed when they exceed the limit
+		ParseCache small = new ParseCache(new File(dir, "small").getPath(), 2000);
+		for (int i = 0; i < 20; i++) {
+			Files.write(src.toPath(), ("procedure p is\n  x : Integer := " + i + ";\nbegin\n  x := x + 1;\nend p;\n").getBytes("UTF-8"));
+			small.Parse(src.getPath(), null, new PrintStream(msgs, true), false, 0);
+		}
+		long size = 0;
+		for (File f : small.dir.listFiles()) size += f.length();
+		Tests.Check(size > 0 && size <= small.limit, "entries within the limit: " + size);
+
+		// a mapped file is hashed in chunks
+		byte[] b = new byte[1000];
+		new Random(7).nextBytes(b);
+		boolean same = true;
+		for (int n = 0; n < b.length && same; n += 37) {
+			int k = n / 64 * 32; // the first chunk, a multiple of 32
+			ByteBuffer[] parts = {ByteBuffer.wrap(b, 0, k).slice(), ByteBuffer.wrap(b, k, n - k).slice()};
+			same = ParseCache.Hash(parts, n) == ParseCache.Hash(Arrays.copyOf(b, n));
+		}
+		Tests.Check(same, "hash of chunks");
+
+		for (File d : new File[] {cache.dir, small.dir}) {
+			for (File f : d.listFiles()) f.delete();
+			d.delete();
+		}
+		src.delete(); dir.delete();
+		Tests.Done("ParseCacheTest");
+	}
+
+	// cut the entry off a few bytes after its messages, keeping it a valid deflate stream
+	static void Damage(File entry) throws Exception {
+		byte[] data = Files.readAllBytes(entry.toPath());
+		ByteBuffer h = ByteBuffer.wrap(data);
+		h.position(HEADER - 4);
+		byte[] raw = new byte[h.getInt()];
+		Inflater inflater = new Inflater();
+		inflater.setInput(data, HEADER, data.length - HEADER);
+		inflater.inflate(raw);
+		inflater.end();
+		Packed in = new Packed(raw, raw.length);
+		in.GetInt();
+		for (int n = in.GetInt(); n > 0; n--) { in.GetInt(); in.GetInt(); in.GetString(); }
+		int cut = in.pos + 3;
+		Deflater deflater = new Deflater();
+		deflater.setInput(raw, 0, cut);
+		deflater.finish();
+		byte[] out = Arrays.copyOf(data, HEADER + cut + 64);
+		int n = HEADER + deflater.deflate(out, HEADER, out.length - HEADER);
+		deflater.end();
+		ByteBuffer.wrap(out).putInt(HEADER - 4, cut);
+		Files.write(entry.toPath(), Arrays.copyOf(out, n));
+	}
+}
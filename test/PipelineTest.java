@@ -0,0 +1,56 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+//-----------------------------------------------------------------------------------
+// PipelineTest  -- the scanning thread of a pipelined scanner ends with the parse
+//-----------------------------------------------------------------------------------
+// The source has far more tokens than the ring holds, so the scanning thread is
+// waiting for a free slot when the parse stops: at EOF after it, at its first
+// error (the error stream throws) and with syntax errors only.
+class PipelineTest {
+
+	public static void main(String[] args) throws Exception {
+		StringBuilder ok = new StringBuilder("procedure p is\n  x : Integer;\nbegin\n");
+		for (int i = 0; i < 20000; i++) ok.append("  x := x + ").append(i).append(";\n");
+		ok.append("end p;\n");
+		String bad = ok.toString().replace("begin\n", "begin\n  x := := 1;\n");
+		String junk = ok.toString().replace("x := x +", "x x := +");
+
+		for (int i = 0; i < 3; i++) {
+			Tests.Check(Parse(ok.toString(), false) == 0, "a valid unit parses without errors");
+			Tests.Check(Parse(bad, true) < 0, "the parse aborts at the first error");
+			Tests.Check(Parse(junk, false) > 0, "errors all over the unit are reported");
+		}
+		Tests.Check(WaitForScanners(), "no scanning thread is left");
+		Tests.Done("PipelineTest");
+	}
+
+	// number of errors, -1 if the parse was aborted
+	static int Parse(String src, boolean abort) {
+		Scanner scanner = Tests.Text(src);
+		scanner.Pipeline();
+		Parser parser = new Parser(scanner);
+		parser.out = null;
+		parser.errors.errorStream = new PrintStream(OutputStream.nullOutputStream()) {
+			public void println(String s) {
+				if (abort) throw new FatalError("aborted");
+			}
+		};
+		try {
+			parser.Parse();
+		} catch (FatalError e) {
+			return -1;
+		}
+		return parser.errors.count;
+	}
+
+	static boolean WaitForScanners() throws InterruptedException {
+		for (int i = 0; i < 200; i++) {
+			boolean left = false;
+			for (Thread t : Thread.getAllStackTraces().keySet()) left |= t.getName().equals("Scanner");
+			if (!left) return true;
+			Thread.sleep(10);
+		}
+		return false;
+	}
+}
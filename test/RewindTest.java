@@ -0,0 +1,56 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+//-----------------------------------------------------------------------------------
+// RewindTest  -- tokens after a rewind of the scanner do not depend on the encoding
+//-----------------------------------------------------------------------------------
+// The scanner goes back after a minus that starts no comment, after a numeral
+// followed by "..", and after an unfinished exponent. A text with such places
+// between non-ASCII characters is scanned as UTF-8 (with a byte order mark) and as
+// Latin-1, from a file and from a stream: all give the same tokens. A UTF-8 file
+// without byte order mark is taken for UTF-8 by its first non-ASCII character.
+class RewindTest {
+	static final String[] PARTS = {
+		"\"h\u00e9llo\"1", "x-y", "a - -b", "1..5", "2e", "3e+", "x--\u00fc comment\n", "'\u00e9'-'\u00df'", "\"\u00f1\"-\"\u00f6\"",
+		"--\n", "- -", "v1-2", "\"gr\u00f6\u00dfer\"..", "\u00e9", "\u00ff-1", " ", "\n", "\r\n", "(1)-(2)", "12_3e4-5"
+	};
+
+	public static void main(String[] args) throws Exception {
+		Random rnd = new Random(3);
+		StringBuilder b = new StringBuilder();
+		while (b.length() < 200000) b.append(PARTS[rnd.nextInt(PARTS.length)]).append(rnd.nextInt(3) == 0 ? " " : "");
+		String text = b.toString();
+		byte[] utf8 = ("\ufeff" + text).getBytes(StandardCharsets.UTF_8), latin1 = text.getBytes(StandardCharsets.ISO_8859_1);
+		File f8 = File.createTempFile("utf8", ".adb"), f1 = File.createTempFile("latin1", ".adb");
+		Files.write(f8.toPath(), utf8);
+		Files.write(f1.toPath(), latin1);
+
+		TokenTable ref = Tests.All(new Scanner(f1.getPath()));
+		Tests.Same(ref, Tests.All(new Scanner(f8.getPath())), false, "UTF-8 file");
+		Tests.Same(ref, Tests.All(new Scanner(new ByteArrayInputStream(utf8))), false, "UTF-8 stream");
+		Tests.Same(ref, Tests.All(new Scanner(new ByteArrayInputStream(latin1))), false, "Latin-1 stream");
+		// without a byte order mark the first non-ASCII character decides, the invalid
+		// byte after it is decoded as UTF-8 as well
+		byte[] tail = {'-', '-', (byte) 0xE9, 'a', 'b', '\n'};
+		File bom = File.createTempFile("bom", ".adb"), plain = File.createTempFile("plain", ".adb");
+		Files.write(bom.toPath(), Concat(utf8, tail));
+		Files.write(plain.toPath(), Concat(Arrays.copyOfRange(utf8, 3, utf8.length), tail));
+		Tests.Same(Tests.All(new Scanner(bom.getPath())), Tests.All(new Scanner(plain.getPath())), false, "UTF-8 file without byte order mark");
+		bom.delete(); plain.delete();
+		boolean hello = false;
+		for (int i = 0; i < ref.count && !hello; i++) hello = ref.Val(i).equals("\"h\u00e9llo\"") && ref.Val(i + 1).equals("1");
+		Tests.Check(hello, "\"h\u00e9llo\"1 is scanned as a string and a numeral");
+		f8.delete(); f1.delete();
+		Tests.Done("RewindTest");
+	}
+
+	static byte[] Concat(byte[] a, byte[] b) {
+		byte[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+}
@@ -0,0 +1,98 @@
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//-----------------------------------------------------------------------------------
+// StartStatesTest  -- the dense array with ranges against the chained hash it replaced
+//-----------------------------------------------------------------------------------
+// Both tables get the same set calls, those Coco generated into Scanner.java and random
+// ones, and must give the same state for every code point 0 .. 0x10FFFF.
+class StartStatesTest {
+
+	// StartStates as Coco's frame had it
+	static class OldStartStates {
+		private static class Elem {
+			public int key, val;
+			public Elem next;
+			public Elem(int key, int val) { this.key = key; this.val = val; }
+		}
+
+		private Elem[] tab = new Elem[128];
+
+		public void set(int key, int val) {
+			Elem e = new Elem(key, val);
+			int k = key % 128;
+			e.next = tab[k]; tab[k] = e;
+		}
+
+		public int state(int key) {
+			Elem e = tab[key % 128];
+			while (e != null && e.key != key) e = e.next;
+			return e == null ? 0: e.val;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		// the start.set calls of Scanner.java, single ones and loops over a range
+		List<int[]> grammar = new ArrayList<int[]>();
+		Matcher m = Pattern.compile("for \\(int i = (\\d+); i <= (\\d+); \\+\\+i\\) start\\.set\\(i, (-?\\d+)\\)|start\\.set\\((\\w+(?:\\.\\w+)?), (-?\\d+)\\)")
+			.matcher(new String(Files.readAllBytes(Paths.get("Scanner.java")), "ISO-8859-1"));
+		while (m.find()) {
+			if (m.group(1) != null) {
+				for (int i = Integer.parseInt(m.group(1)); i <= Integer.parseInt(m.group(2)); i++) grammar.add(new int[] {i, Integer.parseInt(m.group(3))});
+			} else {
+				grammar.add(new int[] {m.group(4).equals("Buffer.EOF") ? Buffer.EOF : Integer.parseInt(m.group(4)), Integer.parseInt(m.group(5))});
+			}
+		}
+		Tests.Check(grammar.size() > 0, "Scanner.java sets start states");
+		Compare("AdaBaby.ATG", grammar);
+		Tests.Check(Same(Old(grammar), Scanner.start) < 0, "the start states of Scanner");
+
+		Random rnd = new Random(4);
+		for (int round = 0; round < 20; round++) {
+			List<int[]> calls = new ArrayList<int[]>();
+			int n = 1 + rnd.nextInt(round < 10 ? 50 : 2000);
+			for (int i = 0; i < n; i++) {
+				int key;
+				switch (rnd.nextInt(4)) {
+					case 0: key = rnd.nextInt(256); break;             // dense part
+					case 1: key = 256 + rnd.nextInt(64); break;        // neighbouring ranges
+					case 2: key = 0x3B0 + rnd.nextInt(16); break;      // many repeats
+					default: key = rnd.nextInt(Buffer.EOF + 1); break; // anywhere, EOF included
+				}
+				int val = rnd.nextInt(4) == 0 ? 0 : rnd.nextInt(5) - 1; // -1 as for EOF
+				calls.add(new int[] {key, val});
+				if (rnd.nextInt(8) == 0) { // a run of keys, as Coco sets character classes
+					for (int k = key + 1; k < key + rnd.nextInt(300) && k <= Buffer.EOF; k++) calls.add(new int[] {k, val});
+				}
+			}
+			Compare("random " + round, calls);
+		}
+		Tests.Done("StartStatesTest");
+	}
+
+	static void Compare(String name, List<int[]> calls) {
+		StartStates now = new StartStates();
+		for (int[] c : calls) now.set(c[0], c[1]);
+		int first = Same(Old(calls), now);
+		Tests.Check(first < 0, name + ": code point " + Integer.toHexString(first) + " differs");
+	}
+
+	static OldStartStates Old(List<int[]> calls) {
+		OldStartStates old = new OldStartStates();
+		for (int[] c : calls) old.set(c[0], c[1]);
+		return old;
+	}
+
+	// the first code point 0 .. 0x10FFFF whose states differ, or -1
+	static int Same(OldStartStates old, StartStates now) {
+		for (int c = 0; c <= 0x10FFFF; c++) {
+			if (old.state(c) != now.state(c)) return c;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,35 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+//-----------------------------------------------------------------------------------
+// StatsTest  -- only the last adababy.stats.units units are kept, the totals count all
+//-----------------------------------------------------------------------------------
+// The scanner counts each token once, and counts comments where it recognizes them.
+class StatsTest {
+	public static void main(String[] args) throws Exception {
+		File json = File.createTempFile("stats", ".json");
+		json.deleteOnExit();
+		System.setProperty("adababy.stats", json.getPath()); // before Stats is loaded
+		System.setProperty("adababy.stats.units", "3");
+		for (int i = 1; i <= 5; i++) {
+			Stats s = new Stats("u" + i);
+			s.gets = i;
+			s.Finish(0);
+		}
+		StringBuilder b = new StringBuilder();
+		Stats.Write(b);
+		String j = b.toString();
+		Tests.Check(Stats.ON && j.contains("\"units\": 5,") && j.contains("\"dropped\": 2,"), "counts in\n" + j);
+		Tests.Check(j.contains("\"gets\": 15,"), "totals in\n" + j);
+		Tests.Check(!j.contains("\"u2\"") && j.indexOf("\"u3\"") < j.indexOf("\"u4\"") && j.indexOf("\"u4\"") < j.indexOf("\"u5\""), "files in\n" + j);
+
+		Scanner sc = new Scanner(new ByteArrayInputStream("x -- c\n- y --\n".getBytes("UTF-8")));
+		TokenTable t = new TokenTable();
+		int i;
+		do i = sc.Scan(t); while (t.kind[i] != Scanner.eofSym);
+		Stats st = sc.stats;
+		Tests.Check(st.comments == 3 && st.backtracks == 1, "comments " + st.comments + ", backtracks " + st.backtracks);
+		Tests.Check(st.tokens[Parser._ident] == 2 && st.tokens[Parser._minus] == 1 && st.tokens[Scanner.eofSym] == 1, "tokens " + st.Tokens());
+		Tests.Done("StatsTest");
+	}
+}
@@ -0,0 +1,111 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+//-----------------------------------------------------------------------------------
+// TableScannerTest  -- the table scanner of ScanTable scans as the switch scanner does
+//-----------------------------------------------------------------------------------
+// ScanTable (which needs Coco.jar on the class path) generates the table scanner
+// into a temporary directory, where it is compiled and loaded by a class loader of
+// its own. Both scanners read random texts of token fragments and the samples; their
+// tokens must agree in kind, value, position, char position, line and column. The
+// names of the token kinds that ScanTable writes into Parser.java are those of
+// Coco's syntax errors.
+class TableScannerTest {
+	static final String[] PARTS = {
+		"procedure", "begin", "end", "Integer", "range", "array", "of", "is", "x", "v_1", "A$b", "_", "0", "12_3",
+		"1.5", "1..5", "16#FF#", "2#1_0#", "1E5", "2e+3", "3e", "'a'", "'\\n'", "'\\u0041'", "'", "\"s\\\"t\"",
+		"\"", ":=", "..", ":", ";", ",", ".", "(", ")", "[", "]", "{", "}", "+", "-", "*", "**", "@", "~", "#",
+		"-- note\n", "--", " ", "\t", "\n", "\r\n", "\u00e9", "\u20ac", "\ud83d\ude00", "true", "null", "and not"
+	};
+
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("table");
+		ScanTable.main(new String[] {"AdaBaby.ATG", dir.toString()});
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		int rc = javac.run(null, null, null, "-nowarn", "-d", dir.toString(), "-cp", System.getProperty("java.class.path"), dir.resolve("Scanner.java").toString());
+		Tests.Check(rc == 0, "table scanner compiles");
+		if (rc != 0) Tests.Done("TableScannerTest");
+		Class<?> table = new Loader(dir).loadClass("Scanner");
+		Tests.Check(table.getClassLoader().loadClass("Dfa").getClassLoader() == table.getClassLoader(), "tables loaded with the scanner");
+
+		Random rnd = new Random(23);
+		for (int t = 0; t < 100; t++) {
+			StringBuilder b = new StringBuilder();
+			for (int n = rnd.nextInt(400); n > 0; n--) b.append(PARTS[rnd.nextInt(PARTS.length)]).append(rnd.nextBoolean() ? " " : "");
+			String text = b.toString(), file = dir.resolve("t.adb").toString();
+			Files.write(Paths.get(file), ("\ufeff" + text).getBytes(StandardCharsets.UTF_8));
+			Object tab = table.getConstructor(String.class).newInstance(file);
+			Tests.Check(Tokens(new Scanner(file)).equals(Tokens(tab)), "text\n" + text);
+		}
+		for (String f : new String[] {"test.adb"}) {
+			Object tab = table.getConstructor(String.class).newInstance(f);
+			Tests.Check(Tokens(new Scanner(f)).equals(Tokens(tab)), f);
+		}
+		boolean names = Parser.tokenNames.length == Parser.maxT + 1;
+		for (int k = 0; names && k <= Parser.maxT; k++) names = Errors.messages[k].equals(Parser.tokenNames[k] + " expected");
+		Tests.Check(names, "token names as in the syntax errors");
+		for (File f : dir.toFile().listFiles()) f.delete();
+		Files.delete(dir);
+		Tests.Done("TableScannerTest");
+	}
+
+	// kind, value, pos, charPos, line and column of every token of scanner, which
+	// may come from either class loader
+	static String Tokens(Object scanner) throws Exception {
+		StringBuilder b = new StringBuilder();
+		Method scan = scanner.getClass().getMethod("Scan");
+		for (;;) {
+			Object t = scan.invoke(scanner);
+			int kind = -1;
+			for (String f : new String[] {"kind", "val", "pos", "charPos", "line", "col"}) {
+				Field field = t.getClass().getField(f);
+				field.setAccessible(true); // Token is package-private
+				if (kind < 0) kind = field.getInt(t);
+				b.append(field.get(t)).append(' ');
+			}
+			b.append('\n');
+			if (kind == 0) return b.toString();
+		}
+	}
+
+	// the classes of the default package, from dir if they were compiled there, else
+	// from the class path (the table scanner uses package-private classes, which
+	// have to be defined by the same loader)
+	static class Loader extends ClassLoader {
+		private final Path dir;
+
+		Loader(Path dir) {
+			super(TableScannerTest.class.getClassLoader());
+			this.dir = dir;
+		}
+
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (name.indexOf('.') >= 0) return super.loadClass(name, resolve);
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null) {
+					Path file = dir.resolve(name + ".class");
+					try (InputStream in = Files.isRegularFile(file) ? Files.newInputStream(file) : getParent().getResourceAsStream(name + ".class")) {
+						if (in == null) throw new ClassNotFoundException(name);
+						byte[] code = in.readAllBytes();
+						c = defineClass(name, code, 0, code.length);
+					} catch (IOException e) {
+						throw new ClassNotFoundException(name, e);
+					}
+				}
+				if (resolve) resolveClass(c);
+				return c;
+			}
+		}
+	}
+}
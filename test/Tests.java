@@ -0,0 +1,112 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+
+//-----------------------------------------------------------------------------------
+// Tests  -- what the drivers in test/ share; make test runs every *Test class
+//-----------------------------------------------------------------------------------
+// A driver is a main that runs its checks and calls Done, which exits with 1 if
+// any of them failed.
+class Tests {
+	static int checks, failures;
+
+	static void Check(boolean ok, String what) {
+		checks++;
+		if (!ok) {
+			failures++;
+			if (failures <= 20) System.out.println("  failed: " + what);
+		}
+	}
+
+	static void Done(String name) {
+		System.out.println(name + ": " + checks + " checks, " + failures + " failed");
+		if (failures > 0) System.exit(1);
+	}
+
+	// a scanner of src, read as the bytes of a file would be (test sources are ASCII)
+	static Scanner Text(String src) {
+		return new Scanner(new ByteArrayInputStream(src.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	// the tokens of s up to and including EOF
+	static TokenTable All(Scanner s) {
+		TokenTable t = new TokenTable();
+		int i;
+		do i = s.Scan(t); while (t.kind[i] != Scanner.eofSym);
+		return t;
+	}
+
+	// x and y have the same kinds, values, lines, columns and char positions, and with
+	// pos the same positions
+	static void Same(TokenTable x, TokenTable y, boolean pos, String what) {
+		boolean ok = x.count == y.count;
+		int i = 0;
+		for (; ok && i < x.count; i++) {
+			ok = x.SameAs(i, y, i) && x.line[i] == y.line[i] && x.col[i] == y.col[i] && x.charPos[i] == y.charPos[i] && (!pos || x.pos[i] == y.pos[i]);
+		}
+		String at = i > 0 && i <= y.count ? " (" + y.Val(i - 1) + " at " + y.line[i - 1] + ":" + y.col[i - 1] + ")" : "";
+		Check(ok, what + ": token " + (i - 1) + " of " + x.count + at + " differs");
+	}
+
+	// parses src: the error messages, or if there are none the variables and the constant
+	// values Fold gave the expressions assigned to them ("\tx = 3\n", "?" if not constant)
+	static String Fold(String src) {
+		ByteArrayOutputStream msgs = new ByteArrayOutputStream();
+		Parser parser = new Parser(Text(src));
+		parser.out = null;
+		parser.errors.errorStream = new PrintStream(msgs, true);
+		parser.Parse();
+		if (parser.errors.count > 0) return msgs.toString();
+		Ast ast = parser.ast;
+		StringBuilder b = new StringBuilder();
+		for (int n = 0; n < ast.count; n++) {
+			if (ast.kind[n] != Ast.ASSIGN) continue;
+			int e = ast.Child(n, 1);
+			b.append('\t').append(parser.tokens.Val(ast.from[n])).append(" = ").append(parser.fold.constant[e] ? String.valueOf(parser.fold.value[e]) : "?").append('\n');
+		}
+		return b.toString();
+	}
+
+	// parses src and, if it has no errors, runs it with Interp: the error messages, or
+	// the values of the variables as Interp.List writes them
+	static String Run(String src) {
+		ByteArrayOutputStream msgs = new ByteArrayOutputStream();
+		Parser parser = new Parser(Text(src));
+		parser.out = null;
+		parser.errors.errorStream = new PrintStream(msgs, true);
+		parser.Parse();
+		Ir ir = new Ir();
+		if (parser.errors.count > 0 || !new IrGen().Generate(parser.ast, parser.tokens, parser.fold, parser.errors, ir)) {
+			return msgs.toString();
+		}
+		Interp interp = new Interp();
+		if (!interp.Run(ir)) return "-- line " + interp.failedLine + ": " + interp.failure + "\n";
+		StringBuilder b = new StringBuilder();
+		interp.List(b, ir, 16);
+		return b.toString();
+	}
+
+	// parses src and runs the class CodeGen translates it into: null if it completed,
+	// else the error messages or the exception it threw
+	static String RunClass(String src) throws Exception {
+		ByteArrayOutputStream msgs = new ByteArrayOutputStream();
+		Parser parser = new Parser(Text(src));
+		parser.out = null;
+		parser.errors.errorStream = new PrintStream(msgs, true);
+		parser.Parse();
+		CodeGen gen = new CodeGen();
+		byte[] code = parser.errors.count > 0 ? null : gen.Generate(parser.ast, parser.tokens, parser.fold, parser.errors);
+		if (code == null) return msgs.toString();
+		Class<?> c = new ClassLoader() {
+			Class<?> Define() { return defineClass(gen.className, code, 0, code.length); }
+		}.Define();
+		try {
+			c.getMethod("run").invoke(null);
+			return null;
+		} catch (InvocationTargetException e) {
+			return e.getCause().toString();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+//-----------------------------------------------------------------------------------
+// TextTest  -- text in memory scans as its file does, streams keep only a window
+//-----------------------------------------------------------------------------------
+// A String, a StringBuilder and a char[] give the kinds, values, lines, columns and
+// char positions of the same text in a UTF-8 file (surrogate pairs are one
+// character, a leading U+FEFF is skipped). A stream read a few bytes at a time
+// gives the tokens of the whole stream, positions included, with a buffer that
+// stays at 64KB.
+class TextTest {
+	static final String[] PARTS = {
+		"x", "v_1", ":=", "16#FF#", "1E5", "1..5", "-", "--", "-- \u00e9t\u00e9 \ud83d\ude00\n", "\"gr\u00f6\u00dfer \ud83d\ude00\"",
+		"'\u00e9'", "\"unterminated\n", " ", "\t", "\n", "\r\n", "\u20ac", "\ud83d\ude00", ";", "(", ")"
+	};
+
+	// at most n bytes per read
+	static class Dribble extends FilterInputStream {
+		final int n;
+
+		Dribble(InputStream in, int n) { super(in); this.n = n; }
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			return super.read(b, off, Math.min(len, n));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Random rnd = new Random(13);
+		StringBuilder b = new StringBuilder();
+		while (b.length() < 1 << 20) b.append(PARTS[rnd.nextInt(PARTS.length)]).append(rnd.nextBoolean() ? " " : "");
+		String text = b.toString();
+		byte[] utf8 = ("\ufeff" + text).getBytes(StandardCharsets.UTF_8);
+		File f = File.createTempFile("text", ".adb");
+		Files.write(f.toPath(), utf8);
+
+		TokenTable file = Tests.All(new Scanner(f.getPath()));
+		Tests.Same(file, Tests.All(new Scanner((CharSequence) text)), false, "String");
+		Tests.Same(file, Tests.All(new Scanner((CharSequence) new StringBuilder(text))), false, "StringBuilder");
+		Tests.Same(file, Tests.All(new Scanner(text.toCharArray())), false, "char[]");
+		Tests.Same(file, Tests.All(new Scanner((CharSequence) ("\ufeff" + text))), false, "String with U+FEFF");
+
+		Field buf = Buffer.class.getDeclaredField("buf");
+		buf.setAccessible(true);
+		TokenTable stream = Tests.All(new Scanner(new ByteArrayInputStream(utf8)));
+		Tests.Same(file, stream, false, "stream");
+		for (int n : new int[] {1, 7, 4096}) {
+			Scanner s = new Scanner(new Dribble(new ByteArrayInputStream(utf8), n));
+			Tests.Same(stream, Tests.All(s), true, "stream read " + n + " bytes at a time");
+			int len = ((byte[]) buf.get(s.buffer)).length;
+			Tests.Check(len <= 1 << 16, "stream buffer of " + len + " bytes");
+		}
+		f.delete();
+		Tests.Done("TextTest");
+	}
+}